@@ -0,0 +1,623 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+class Benchmark { // Small timing harness for the stages of the program. Run with the name of a benchmark, for
+                  // example "java Benchmark build".
+    private static final int minimumRuns = 5;
+    private static final long warmupNanos = 200_000_000L;
+    private static final long measuredNanos = 200_000_000L;
+    private static volatile Object sink; // Written by every run so the JIT can not remove the measured work.
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String name = args.length > 0 ? args[0] : "build";
+        switch (name) {
+            case "build":
+                benchmarkBuild();
+                break;
+            case "tokenize":
+                benchmarkTokenize();
+                break;
+            case "evaluate":
+                benchmarkEvaluate();
+                break;
+            case "batch":
+                benchmarkBatch();
+                break;
+            case "cache":
+                benchmarkCache();
+                break;
+            case "intern":
+                benchmarkIntern();
+                break;
+            case "render":
+                benchmarkRender();
+                break;
+            case "errors":
+                benchmarkErrors();
+                break;
+            case "arena":
+                benchmarkArena();
+                break;
+            case "metrics":
+                benchmarkMetrics();
+                break;
+            case "incremental":
+                benchmarkIncremental();
+                break;
+            case "treefile":
+                benchmarkTreeFile();
+                break;
+            case "columns":
+                benchmarkColumns();
+                break;
+            case "simplify":
+                benchmarkSimplify();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown benchmark: " + name);
+        }
+    }
+
+    private static void benchmarkBuild() { // Tree construction for right-leaning chains like the ones factor() and
+                                           // expression() produce. The time per token should stay flat.
+        System.out.println("BUILD (right-leaning chain)");
+        System.out.printf("%12s %14s %12s%n", "TOKENS", "TOTAL (ms)", "NS/TOKEN");
+        for (int tokens = 10; tokens <= 1_000_000; tokens *= 10) {
+            final int size = tokens;
+            long nanos = time(() -> sink = buildChain(size));
+            System.out.printf("%12d %14.3f %12.2f%n", size, nanos / 1e6, (double) nanos / size);
+        }
+    }
+
+    static BinaryTree buildChain(int tokens) { // Build 1+1+...+1 bottom up with the given number of tokens, in the
+                                               // same order as the recursive descent parser links the nodes.
+        Token plus = new Token("+", Type.PLUS);
+        Token one = new Token("1", 1);
+        BinaryTree tree = new BinaryTree(one);
+        for (int i = 1; i < tokens; i += 2) {
+            tree = new BinaryTree(plus, new BinaryTree(one), tree);
+        }
+        return tree;
+    }
+
+    private static void benchmarkTokenize() { // Lexing speed and bytes allocated per token, which should be close
+                                              // to zero. Parsing is shown next to it for comparison, where the tree
+                                              // nodes are the only remaining allocations.
+        System.out.println("TOKENIZE");
+        System.out.printf("%12s %10s %12s %12s %14s%n", "TOKENS", "STAGE", "NS/TOKEN", "BYTES/TOKEN", "TOTAL (ms)");
+        for (int tokens = 1000; tokens <= 1_000_000; tokens *= 10) {
+            String text = Workloads.flatExpression(tokens);
+            Lexer lexer = new Lexer(text);
+            report(tokens, "lex", () -> {
+                lexer.reset(text);
+                int count = 0;
+                while (!lexer.isType(Type.END)) {
+                    lexer.next();
+                    count++;
+                }
+                sink = count;
+            });
+            report(tokens, "parse", () -> {
+                lexer.reset(text);
+                sink = new BackusNaurForm(lexer).parse();
+            });
+        }
+    }
+
+    private static void benchmarkEvaluate() { // Repeated evaluation of the same tree with the recursive-free tree
+                                              // walker and with the compiled postfix program.
+        System.out.println("EVALUATE");
+        System.out.printf("%12s %10s %12s %12s %14s%n", "TOKENS", "STAGE", "NS/TOKEN", "BYTES/TOKEN", "TOTAL (ms)");
+        for (int tokens = 11; tokens <= 1_000_001; tokens = tokens * 10 - 9) {
+            BinaryTree tree = new BackusNaurForm(new Lexer(Workloads.flatExpression(tokens))).parse();
+            Program program = Program.compile(tree);
+            double[] stack = program.newStack();
+            check(same(Output.evaluate(tree), program.evaluate(stack)), "program and tree results differ");
+            report(tokens, "tree", () -> sink = Output.evaluate(tree));
+            report(tokens, "program", () -> sink = program.evaluate(stack));
+        }
+    }
+
+    private static void benchmarkBatch() { // Throughput of the batch evaluator for different numbers of threads.
+        List<String> expressions = Workloads.corpus(1_000_000, 8);
+        System.out.println("BATCH (" + expressions.size() + " expressions, "
+                + Runtime.getRuntime().availableProcessors() + " available processors)");
+        System.out.printf("%12s %16s %14s%n", "THREADS", "EXPRESSIONS/S", "TOTAL (ms)");
+        for (int threads = 1; threads <= 16; threads *= 2) {
+            BatchResult[] result = new BatchResult[1];
+            long nanos;
+            try (BatchEvaluator evaluator = new BatchEvaluator(threads)) {
+                nanos = time(() -> result[0] = evaluator.evaluate(expressions));
+            }
+            check(result[0].getErrorCount() == 0, "unexpected errors in the batch");
+            System.out.printf("%12d %16.0f %14.3f%n", threads, expressions.size() / (nanos / 1e9), nanos / 1e6);
+        }
+    }
+
+    private static void benchmarkCache() { // Batch throughput on a corpus where expressions repeat, with and without
+                                           // a cache that is smaller than the number of distinct expressions.
+        List<String> distinct = Workloads.corpus(20_000, 16);
+        Random random = new Random(11);
+        List<String> expressions = new ArrayList<String>();
+        for (int i = 0; i < 1_000_000; i++) {
+            expressions.add(distinct.get((int) (distinct.size() * Math.pow(random.nextDouble(), 3)))); // Skewed.
+        }
+        System.out.println("CACHE (" + expressions.size() + " expressions, " + distinct.size() + " distinct)");
+        System.out.printf("%12s %16s %14s %12s %12s %12s%n", "CACHE", "EXPRESSIONS/S", "TOTAL (ms)", "HITS",
+                "MISSES", "EVICTIONS");
+        for (int capacity : new int[] { 0, 1_000, 10_000, 100_000 }) {
+            ExpressionCache cache = capacity == 0 ? null : new ExpressionCache(capacity);
+            long nanos;
+            try (BatchEvaluator evaluator = new BatchEvaluator(Runtime.getRuntime().availableProcessors(), cache)) {
+                nanos = time(() -> sink = evaluator.evaluate(expressions));
+            }
+            System.out.printf("%12d %16.0f %14.3f %12d %12d %12d%n", capacity, expressions.size() / (nanos / 1e9),
+                    nanos / 1e6, cache == null ? 0 : cache.getHits(), cache == null ? 0 : cache.getMisses(),
+                    cache == null ? 0 : cache.getEvictions());
+        }
+    }
+
+    private static void benchmarkIntern() { // Parse and evaluate machine-generated expressions that repeat their
+                                            // subexpressions, as plain trees and as interned DAGs.
+        Random random = new Random(3);
+        List<String> expressions = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            expressions.add(repetitiveExpression(random, 12, 3));
+        }
+        long requested = 0;
+        long unique = 0;
+        for (String expression : expressions) {
+            Interner interner = new Interner();
+            BackusNaurForm parser = new BackusNaurForm(new Lexer(expression));
+            parser.setInterner(interner);
+            BinaryTree tree = parser.parse();
+            check(same(Output.evaluate(tree), interner.evaluate(tree)), "interned result differs");
+            requested += interner.getRequestedNodes();
+            unique += interner.getUniqueNodes();
+        }
+        System.out.println("INTERN (" + expressions.size() + " expressions)");
+        System.out.printf("NODES: %d before interning, %d after (%.1f%%), about %d KB of retained tree nodes"
+                + " instead of %d KB%n", requested, unique, 100.0 * unique / requested, unique * 40 / 1024,
+                requested * 40 / 1024); // A BinaryTree node is about 40 bytes with compressed references.
+        System.out.printf("%12s %14s %16s%n", "MODE", "TOTAL (ms)", "ALLOCATED (KB)");
+        Lexer lexer = new Lexer("");
+        BackusNaurForm parser = new BackusNaurForm(lexer);
+        reportCorpus("plain", () -> {
+            double sum = 0;
+            for (String expression : expressions) {
+                lexer.reset(expression);
+                sum += Output.evaluate(parser.parse());
+            }
+            sink = sum;
+        });
+        reportCorpus("interned", () -> {
+            double sum = 0;
+            for (String expression : expressions) {
+                Interner interner = new Interner();
+                lexer.reset(expression);
+                parser.setInterner(interner);
+                sum += interner.evaluate(parser.parse());
+            }
+            parser.setInterner(null);
+            sink = sum;
+        });
+    }
+
+    private static void reportCorpus(String mode, Runnable run) { // Print time and allocation for a whole corpus.
+        long nanos = time(run);
+        long before = allocatedBytes();
+        run.run();
+        long bytes = allocatedBytes() - before;
+        System.out.printf("%12s %14.3f %16d%n", mode, nanos / 1e6, bytes / 1024);
+    }
+
+    static String repetitiveExpression(Random random, int levels, int poolSize) { // Combine a small pool of
+                                                                                  // subexpressions level by level,
+                                                                                  // so they repeat heavily.
+        String operators = "+-*/";
+        List<String> pool = new ArrayList<String>();
+        for (int i = 0; i < poolSize; i++) {
+            pool.add(String.valueOf((char) ('1' + random.nextInt(9))));
+        }
+        for (int level = 0; level < levels; level++) {
+            List<String> next = new ArrayList<String>();
+            for (int i = 0; i < poolSize; i++) {
+                next.add("{" + pool.get(random.nextInt(poolSize))
+                        + operators.charAt(random.nextInt(operators.length()))
+                        + pool.get(random.nextInt(poolSize)) + "}");
+            }
+            pool = next;
+        }
+        return pool.get(0);
+    }
+
+    private static void benchmarkRender() { // Writing the basic visualization of a balanced tree of bracketed
+                                            // subexpressions into a reused StringBuilder, with and without ANSI.
+        System.out.println("RENDER (basic)");
+        System.out.printf("%12s %10s %12s %14s%n", "TOKENS", "ANSI", "NS/TOKEN", "TOTAL (ms)");
+        for (int levels = 10; levels <= 16; levels += 3) {
+            StringBuilder text = new StringBuilder();
+            Workloads.balancedExpression(new Random(levels), levels, text);
+            BinaryTree tree = new BackusNaurForm(new Lexer(text)).parse();
+            int tokens = (1 << (levels + 1)) - 1;
+            StringBuilder out = new StringBuilder();
+            for (boolean ansi : new boolean[] { false, true }) {
+                long nanos = time(() -> {
+                    out.setLength(0);
+                    try {
+                        Output.printBasicTree(tree, out, ansi);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                System.out.printf("%12d %10s %12.2f %14.3f%n", tokens, ansi, (double) nanos / tokens, nanos / 1e6);
+            }
+        }
+    }
+
+    private static void benchmarkArena() { // Retained memory per node, parsing and evaluating with BinaryTree
+                                           // nodes and with a reused TreeArena, for single digits, whose tokens are
+                                           // shared, and for longer numbers, which need a token each.
+        System.out.println("ARENA");
+        System.out.printf("%12s %10s %10s %14s %12s %12s %12s%n", "NODES", "LITERALS", "TREE", "RETAINED B/N",
+                "PARSE NS/N", "EVAL NS/N", "ALLOC B/N");
+        for (int tokens = 1001; tokens <= 1_000_001; tokens = tokens * 10 - 9) {
+            reportArena("digits", Workloads.flatExpression(tokens));
+            reportArena("numbers", Workloads.numberExpression(tokens));
+        }
+    }
+
+    private static void reportArena(String literals, String text) {
+        Lexer lexer = new Lexer(text);
+        BackusNaurForm parser = new BackusNaurForm(lexer);
+        long before = usedHeap();
+        BinaryTree tree = parser.parse();
+        long treeBytes = usedHeap() - before;
+        TreeArena arena = new TreeArena();
+        before = usedHeap();
+        arena.parse(text);
+        long arenaBytes = usedHeap() - before;
+        check(same(Output.evaluate(tree), arena.evaluate()), "arena and tree results differ");
+
+        int nodes = arena.size();
+        long treeParse = time(() -> {
+            lexer.reset(text);
+            sink = parser.parse();
+        });
+        long treeEvaluate = time(() -> sink = Output.evaluate(tree));
+        long arenaParse = time(() -> sink = arena.parse(text));
+        long arenaEvaluate = time(() -> sink = arena.evaluate());
+        long allocated = allocatedBytes();
+        arena.parse(text);
+        arena.evaluate();
+        allocated = allocatedBytes() - allocated - allocationOverhead;
+        System.out.printf("%12d %10s %10s %14.1f %12.2f %12.2f %12s%n", nodes, literals, "binary",
+                (double) treeBytes / nodes, (double) treeParse / nodes, (double) treeEvaluate / nodes, "");
+        System.out.printf("%12d %10s %10s %14.1f %12.2f %12.2f %12.3f%n", nodes, literals, "arena",
+                (double) arenaBytes / nodes, (double) arenaParse / nodes, (double) arenaEvaluate / nodes,
+                (double) allocated / nodes);
+        sink = tree;
+    }
+
+    private static long usedHeap() { // Bytes of live objects, after collecting garbage.
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void benchmarkMetrics() throws IOException, InterruptedException { // Cost of the
+        // instrumentation per small expression. The flag is fixed when the JVM starts, so the benchmark runs itself
+        // once with metrics off and once with metrics on.
+        if (System.getProperty("bnf.metrics") == null) {
+            for (String enabled : new String[] { "false", "true" }) {
+                Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-Dbnf.metrics=" + enabled, "-cp", System.getProperty("java.class.path"), "Benchmark",
+                        "metrics").inheritIO().start();
+                check(process.waitFor() == 0, "metrics benchmark failed");
+            }
+            return;
+        }
+        List<String> expressions = Workloads.corpus(10_000, 8);
+        Lexer lexer = new Lexer(expressions.get(0));
+        BackusNaurForm parser = new BackusNaurForm(lexer);
+        ParseResult parsed = new ParseResult();
+        Program program = Program.compile(parser.parse());
+        double[] stack = program.newStack();
+        System.out.println("METRICS (" + (Metrics.enabled ? "on" : "off") + ", " + expressions.size()
+                + " expressions of 8 terms)");
+        System.out.printf("%24s %12s%n", "STAGE", "NS/EXPR");
+        String[] stages = { "parse", "validate", "parse and evaluate", "program" };
+        Runnable[] runs = { () -> {
+            for (String expression : expressions) {
+                lexer.reset(expression);
+                sink = parser.parse();
+            }
+        }, () -> {
+            for (String expression : expressions) {
+                lexer.reset(expression);
+                sink = parser.parse(parsed);
+            }
+        }, () -> {
+            for (String expression : expressions) {
+                lexer.reset(expression);
+                sink = Output.evaluate(parser.parse());
+            }
+        }, () -> {
+            double sum = 0;
+            for (int i = 0; i < expressions.size(); i++) {
+                sum += program.evaluate(stack);
+            }
+            sink = sum;
+        } };
+        for (int i = 0; i < stages.length; i++) {
+            System.out.printf("%24s %12.1f%n", stages[i], (double) time(runs[i]) / expressions.size());
+        }
+        if (Metrics.enabled) {
+            Map<String, Long> statistics = Metrics.instance.getStages();
+            System.out.println("parse: " + statistics.get("parse.count") + " runs, p50 " + statistics.get(
+                    "parse.p50Nanos") + " ns, p99 " + statistics.get("parse.p99Nanos") + " ns, "
+                    + Metrics.instance.getTokens() + " tokens, max height " + Metrics.instance.getMaxHeight()
+                    + ", max depth " + Metrics.instance.getMaxDepth());
+        }
+    }
+
+    private static void benchmarkIncremental() { // Parsing and evaluating again after every one character edit,
+        // from scratch and incrementally, for random expressions of growing size. Every edit replaces a digit, so the
+        // size stays the same while the edits move over the whole expression. TYPED makes the same edits from the
+        // start of the text to its end, the way someone typing does, so every edit is close to the one before.
+        System.out.printf("%10s %18s %18s %18s %12s%n", "TERMS", "FULL (ns/edit)", "EDIT (ns/edit)", "TYPED (ns/edit)",
+                "NODES/EDIT");
+        for (int terms : new int[] { 10, 100, 1_000, 10_000 }) {
+            Random random = new Random(11);
+            StringBuilder text = new StringBuilder(Workloads.randomExpression(random, terms));
+            int[] digits = new int[1000]; // Offsets of the edited digits.
+            for (int i = 0; i < digits.length; i++) {
+                do {
+                    digits[i] = random.nextInt(text.length());
+                } while (!Character.isDigit(text.charAt(digits[i])));
+            }
+            Lexer lexer = new Lexer(text);
+            BackusNaurForm parser = new BackusNaurForm(lexer);
+            IncrementalExpression incremental = new IncrementalExpression(text);
+            long full = time(() -> {
+                double sum = 0;
+                for (int i = 0; i < digits.length; i++) {
+                    text.setCharAt(digits[i], (char) ('0' + i % 10));
+                    lexer.reset(text);
+                    sum += Output.evaluate(parser.parse());
+                }
+                sink = sum;
+            });
+            long[] built = new long[1];
+            long edit = time(() -> {
+                double sum = 0;
+                built[0] = 0;
+                for (int i = 0; i < digits.length; i++) {
+                    incremental.edit(digits[i], 1, String.valueOf((char) ('0' + i % 10)));
+                    sum += incremental.evaluate();
+                    built[0] += incremental.getBuiltNodes();
+                }
+                sink = sum;
+            });
+            int[] typed = digits.clone();
+            Arrays.sort(typed);
+            long nearby = time(() -> {
+                double sum = 0;
+                for (int i = 0; i < typed.length; i++) {
+                    incremental.edit(typed[i], 1, String.valueOf((char) ('0' + i % 10)));
+                    sum += incremental.evaluate();
+                }
+                sink = sum;
+            });
+            System.out.printf("%10d %18.0f %18.0f %18.0f %12.1f%n", terms, (double) full / digits.length,
+                    (double) edit / digits.length, (double) nearby / typed.length, (double) built[0] / digits.length);
+        }
+    }
+
+    private static void benchmarkTreeFile() throws IOException { // Startup cost of a library of expressions:
+        // reading and parsing the text against mapping a tree file, each followed by evaluating every expression.
+        System.out.printf("%10s %8s %12s %12s %14s %14s%n", "TREES", "TERMS", "TEXT (KiB)", "FILE (KiB)",
+                "PARSE (ms)", "LOAD (ms)");
+        for (int[] library : new int[][] { { 100_000, 8 }, { 10_000, 100 }, { 10, 100_000 } }) {
+            List<String> expressions = Workloads.corpus(library[0], library[1]);
+            List<BinaryTree> trees = new ArrayList<BinaryTree>();
+            for (String expression : expressions) {
+                trees.add(new BackusNaurForm(new Lexer(expression)).parse());
+            }
+            Path textPath = Files.createTempFile("bnf", ".txt");
+            Path treePath = Files.createTempFile("bnf", ".trees");
+            try {
+                Files.write(textPath, expressions, StandardCharsets.US_ASCII);
+                TreeFile.write(treePath, trees);
+                long parse = time(() -> {
+                    double sum = 0;
+                    try {
+                        for (String line : Files.readAllLines(textPath, StandardCharsets.US_ASCII)) {
+                            sum += Output.evaluate(new BackusNaurForm(new Lexer(line)).parse());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    sink = sum;
+                });
+                long load = time(() -> {
+                    double sum = 0;
+                    try {
+                        TreeFile file = TreeFile.load(treePath);
+                        for (int i = 0; i < file.size(); i++) {
+                            sum += file.evaluate(i);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    sink = sum;
+                });
+                System.out.printf("%10d %8d %12d %12d %14.2f %14.2f%n", library[0], library[1],
+                        Files.size(textPath) >> 10, Files.size(treePath) >> 10, parse / 1e6, load / 1e6);
+            } finally {
+                Files.delete(textPath);
+                Files.delete(treePath);
+            }
+        }
+    }
+
+    private static void benchmarkErrors() { // Cost per expression of valid and malformed input, with the legacy
+                                            // parser that fails with an exception and with the validating parser.
+        List<String> valid = Workloads.corpus(100_000, 8);
+        List<String> malformed = new ArrayList<String>();
+        Random random = new Random(9);
+        for (String expression : valid) { // Replace one character, so the error is found anywhere in the line.
+            int i = random.nextInt(expression.length());
+            malformed.add(expression.substring(0, i) + "#+{".charAt(random.nextInt(3)) + expression.substring(i + 1));
+        }
+        Lexer lexer = new Lexer("");
+        BackusNaurForm parser = new BackusNaurForm(lexer);
+        ParseResult parsed = new ParseResult();
+        System.out.println("ERRORS (" + valid.size() + " expressions)");
+        System.out.printf("%12s %12s %12s %14s%n", "INPUT", "PARSER", "NS/EXPR", "BYTES/EXPR");
+        for (List<String> expressions : List.of(valid, malformed)) {
+            String input = expressions == valid ? "valid" : "malformed";
+            reportExpressions(input, "legacy", expressions.size(), () -> {
+                for (String expression : expressions) {
+                    lexer.reset(expression);
+                    try {
+                        sink = Output.evaluate(parser.parse());
+                    } catch (RuntimeException e) {
+                        sink = e.toString();
+                    }
+                }
+            });
+            reportExpressions(input, "validating", expressions.size(), () -> {
+                for (String expression : expressions) {
+                    lexer.reset(expression);
+                    sink = parser.parse(parsed) && parsed.requireConstant() ? Output.evaluate(parsed.getTree())
+                            : parsed.getError();
+                }
+            });
+        }
+    }
+
+    private static void reportExpressions(String input, String parser, int size, Runnable run) {
+        long allocated = allocatedBytes();
+        run.run();
+        allocated = allocatedBytes() - allocated - allocationOverhead;
+        long nanos = time(run);
+        System.out.printf("%12s %12s %12.1f %14.1f%n", input, parser, (double) nanos / size, (double) allocated / size);
+    }
+
+    private static void benchmarkColumns() { // Evaluating one formula for many rows of values by splicing the
+                                             // values into the text and parsing every row, by running the compiled
+                                             // program once per row, and over whole columns.
+        String formula = Workloads.formula(new Random(5), 16);
+        Program program = Program.compile(new BackusNaurForm(new Lexer(formula)).parse());
+        int rows = 1_000_000;
+        double[][] columns = Workloads.columns(new Random(6), program.getVariables().length, rows);
+        double[] results = new double[rows];
+        System.out.println("COLUMNS (" + formula + ", " + program.getVariables().length + " variables)");
+        System.out.printf("%12s %10s %12s %12s %14s%n", "ROWS", "STAGE", "NS/ROW", "BYTES/ROW", "TOTAL (ms)");
+        Lexer lexer = new Lexer("");
+        BackusNaurForm parser = new BackusNaurForm(lexer);
+        int parsedRows = rows / 100; // Parsing every row is slow, so it runs on a sample.
+        report(parsedRows, "reparse", () -> {
+            for (int row = 0; row < parsedRows; row++) {
+                lexer.reset(Workloads.splice(formula, program.getVariables(), columns, row));
+                results[row] = Output.evaluate(parser.parse());
+            }
+        });
+        double[] stack = program.newStack();
+        double[] bindings = new double[columns.length];
+        report(rows, "row", () -> {
+            for (int row = 0; row < rows; row++) {
+                for (int i = 0; i < bindings.length; i++) {
+                    bindings[i] = columns[i][row];
+                }
+                results[row] = program.evaluate(stack, bindings);
+            }
+        });
+        report(rows, "columns", () -> program.evaluate(columns, results));
+        sink = results;
+    }
+
+    private static void benchmarkSimplify() { // Columnar evaluation of formulas that mix variables with the
+                                              // constants 0, 1 and 2, compiled as parsed and after simplifying.
+        Random random = new Random(8);
+        int rows = 100_000;
+        System.out.printf("%12s %12s %12s %14s %14s%n", "TERMS", "NODES", "REMOVED", "PARSED NS/ROW",
+                "SIMPLE NS/ROW");
+        for (int terms = 4; terms <= 256; terms *= 4) {
+            BinaryTree tree = new BackusNaurForm(new Lexer(Workloads.mixedFormula(random, terms))).parse();
+            Simplifier simplifier = new Simplifier();
+            Program parsed = Program.compile(tree);
+            Program simple = Program.compile(simplifier.simplify(tree));
+            double[][] columns = Workloads.columns(random, parsed.getVariables().length, rows);
+            double[] results = new double[rows];
+            long parsedNanos = time(() -> parsed.evaluate(columns, results));
+            long simpleNanos = time(() -> simple.evaluate(columns, results));
+            sink = results;
+            System.out.printf("%12d %12d %12d %14.2f %14.2f%n", terms, simplifier.getVisitedNodes(),
+                    simplifier.getRemovedNodes(), (double) parsedNanos / rows, (double) simpleNanos / rows);
+        }
+    }
+
+    static boolean same(double a, double b) { // Bitwise equality, so NaN, infinities and signed zero must match.
+        return Double.doubleToRawLongBits(a) == Double.doubleToRawLongBits(b);
+    }
+
+    private static void report(int tokens, String stage, Runnable run) { // Print time and allocation per token.
+        long nanos = time(run);
+        long before = allocatedBytes();
+        run.run();
+        long bytes = Math.max(0, allocatedBytes() - before - allocationOverhead);
+        System.out.printf("%12d %10s %12.2f %12.3f %14.3f%n", tokens, stage, (double) nanos / tokens,
+                (double) bytes / tokens, nanos / 1e6);
+    }
+
+    private static final long allocationOverhead = allocationOverhead();
+
+    private static long allocationOverhead() { // Bytes allocated by reading the allocation counter itself.
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 100; i++) {
+            long before = allocatedBytes();
+            overhead = Math.min(overhead, allocatedBytes() - before);
+        }
+        return overhead;
+    }
+
+    static long allocatedBytes() { // Bytes allocated so far by the current thread.
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    static long time(Runnable run) { // Best wall clock time in nanoseconds over the measured runs after warming up.
+                                      // Each phase runs at least a minimum number of times and for a minimum time,
+                                      // so small inputs get enough iterations for the JIT to settle.
+        long deadline = System.nanoTime() + warmupNanos;
+        for (int i = 0; i < minimumRuns || System.nanoTime() < deadline; i++) {
+            run.run();
+        }
+        long best = Long.MAX_VALUE;
+        deadline = System.nanoTime() + measuredNanos;
+        for (int i = 0; i < minimumRuns || System.nanoTime() < deadline; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
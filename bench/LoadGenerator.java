@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class LoadGenerator { // Local load generator for the evaluation server. Every connection runs on its own thread and
+                      // keeps up to depth requests in flight, and the latency of each request is measured from
+                      // writing it to reading its result. Usage:
+                      //   java LoadGenerator [--connect <port> | unix:<path>] [--connections <n>] [--depth <n>]
+                      //                      [--requests <n>] [--terms <n>]
+                      // Without --connect a server is started in the same JVM on a free port.
+    private static final int maxDepth = 64; // Results in flight must fit the server's output buffer.
+
+    private final SocketAddress address;
+    private final List<String> expressions;
+    private final int depth;
+
+    public LoadGenerator(SocketAddress address, List<String> expressions, int depth) {
+        if (depth < 1 || depth > maxDepth) {
+            throw new IllegalArgumentException("Depth must be between 1 and " + maxDepth);
+        }
+        this.address = address;
+        this.expressions = expressions;
+        this.depth = depth;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String connect = null;
+        int connections = 4;
+        int depth = 16;
+        int requests = 1_000_000;
+        int terms = 8;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--connect":
+                    connect = args[i + 1];
+                    break;
+                case "--connections":
+                    connections = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--requests":
+                    requests = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--terms":
+                    terms = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        EvaluationServer server = null;
+        Thread serverThread = null;
+        SocketAddress address;
+        if (connect == null) {
+            server = new EvaluationServer(EvaluationServer.address("0"));
+            EvaluationServer running = server;
+            serverThread = new Thread(() -> {
+                try {
+                    running.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            serverThread.start();
+            address = server.getAddress();
+        } else {
+            address = EvaluationServer.address(connect);
+        }
+
+        LoadGenerator generator = new LoadGenerator(address, Workloads.corpus(10_000, terms), depth);
+        generator.run(connections, requests / connections / 10); // Warm up the server and the client.
+        Report report = generator.run(connections, requests / connections);
+        System.out.println("LOAD (" + address + ", " + connections + " connections, depth " + depth + ", " + terms
+                + " terms)");
+        System.out.printf("%12s %14s %10s %10s %10s %10s %8s%n", "REQUESTS", "REQUESTS/S", "P50 (us)", "P99 (us)",
+                "P99.9 (us)", "MAX (us)", "ERRORS");
+        System.out.printf("%12d %14.0f %10.1f %10.1f %10.1f %10.1f %8d%n", report.latencies.length,
+                report.latencies.length / (report.nanos / 1e9), report.percentile(0.5) / 1e3,
+                report.percentile(0.99) / 1e3, report.percentile(0.999) / 1e3, report.percentile(1.0) / 1e3,
+                report.errors);
+
+        if (server != null) {
+            server.close();
+            serverThread.join();
+        }
+    }
+
+    public Report run(int connections, int requestsPerConnection) throws Exception { // Send the requests over the
+                                                                                      // given number of connections
+                                                                                      // at once.
+        ExecutorService threads = Executors.newFixedThreadPool(connections);
+        try {
+            Future<?>[] futures = new Future<?>[connections];
+            long[][] latencies = new long[connections][];
+            int[] errors = new int[connections];
+            long start = System.nanoTime();
+            for (int c = 0; c < connections; c++) {
+                int connection = c;
+                futures[c] = threads.submit((Callable<Void>) () -> {
+                    latencies[connection] = new long[requestsPerConnection];
+                    errors[connection] = send(connection, latencies[connection]);
+                    return null;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long nanos = System.nanoTime() - start;
+            long[] all = new long[connections * requestsPerConnection];
+            int errorCount = 0;
+            for (int c = 0; c < connections; c++) {
+                System.arraycopy(latencies[c], 0, all, c * requestsPerConnection, requestsPerConnection);
+                errorCount += errors[c];
+            }
+            Arrays.sort(all);
+            return new Report(all, nanos, errorCount);
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    private int send(int connection, long[] latencies) throws IOException { // Pipeline the requests of one
+                                                                            // connection. Returns the number of
+                                                                            // error results.
+        int requests = latencies.length;
+        long[] sent = new long[depth]; // Send time of each request in flight, indexed modulo the depth.
+        ByteBuffer out = ByteBuffer.allocate(1 << 16);
+        ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        int written = 0;
+        int received = 0;
+        int errors = 0;
+        boolean lineStart = true;
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            while (received < requests) {
+                out.clear();
+                long now = System.nanoTime();
+                for (; written < requests && written - received < depth; written++) {
+                    byte[] line = expressions.get((connection * 7919 + written) % expressions.size())
+                            .getBytes(StandardCharsets.US_ASCII);
+                    if (out.remaining() < line.length + 1) {
+                        break;
+                    }
+                    out.put(line).put((byte) '\n');
+                    sent[written % depth] = now;
+                }
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+
+                in.clear();
+                if (channel.read(in) < 0) {
+                    throw new IOException("Server closed the connection after " + received + " results");
+                }
+                now = System.nanoTime();
+                for (int i = 0; i < in.position(); i++) {
+                    byte b = in.get(i);
+                    if (lineStart && b == 'E') {
+                        errors++;
+                    }
+                    lineStart = b == '\n';
+                    if (lineStart) {
+                        latencies[received] = now - sent[received % depth];
+                        received++;
+                    }
+                }
+            }
+        }
+        return errors;
+    }
+
+    static class Report { // Sorted latencies in nanoseconds of one run.
+        final long[] latencies;
+        final long nanos;
+        final int errors;
+
+        Report(long[] latencies, long nanos, int errors) {
+            this.latencies = latencies;
+            this.nanos = nanos;
+            this.errors = errors;
+        }
+
+        long percentile(double fraction) {
+            return latencies[Math.min(latencies.length - 1, (int) Math.ceil(fraction * latencies.length) - 1)];
+        }
+    }
+}
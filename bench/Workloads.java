@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+public class Workloads { // Generated expressions and the stages of the program prepared as workloads for the benchmarks
+                         // and the tests. The JMH suite in bench/benchmarks/ lives in a named package and can not refer
+                         // to classes in the default package, so it loads this class by name and only sees standard
+                         // interfaces.
+    private Workloads() {
+    }
+
+    public static String expression(String shape, int tokens) { // An expression of about the given number of tokens.
+        switch (shape) {
+            case "flat":
+                return flatExpression(tokens);
+            case "rightDeep":
+                return rightDeepExpression(tokens);
+            case "bracketed":
+                int levels = 0;
+                while (5 * (2L << levels) - 4 <= tokens) { // A complete tree of L levels has 5 * 2^L - 4 tokens.
+                    levels++;
+                }
+                StringBuilder expression = new StringBuilder();
+                balancedExpression(new Random(levels), levels, expression);
+                return expression.toString();
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+    }
+
+    public static DoubleSupplier stage(String stage, String shape, int tokens) { // One run of a stage on a prepared
+                                                                                 // input. The result is a number
+                                                                                 // that depends on all of the work.
+        String text = expression(shape, tokens);
+        Lexer lexer = new Lexer(text);
+        BackusNaurForm parser = new BackusNaurForm(lexer);
+        BinaryTree tree = parser.parse();
+        switch (stage) {
+            case "tokenize":
+                return () -> {
+                    lexer.reset(text);
+                    int count = 0;
+                    while (!lexer.isType(Type.END)) {
+                        lexer.next();
+                        count++;
+                    }
+                    return count;
+                };
+            case "parse":
+                return () -> {
+                    lexer.reset(text);
+                    return parser.parse().getHeight();
+                };
+            case "evaluate":
+                return () -> Output.evaluate(tree);
+            case "compile":
+                return () -> Program.compile(tree).size();
+            case "program":
+                Program program = Program.compile(tree);
+                double[] stack = program.newStack();
+                return () -> program.evaluate(stack);
+            case "arenaParse":
+                TreeArena parsing = new TreeArena();
+                return () -> parsing.parse(text);
+            case "arenaEvaluate":
+                TreeArena arena = new TreeArena();
+                arena.parse(text);
+                return () -> arena.evaluate();
+            case "renderBasic":
+                StringBuilder basic = new StringBuilder();
+                return () -> {
+                    basic.setLength(0);
+                    try {
+                        Output.printBasicTree(tree, basic, false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return basic.length();
+                };
+            case "renderEnhanced":
+                StringBuilder enhanced = new StringBuilder();
+                return () -> {
+                    enhanced.setLength(0);
+                    try {
+                        Output.printEnhancedTree(tree, enhanced, false, Integer.MAX_VALUE);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return enhanced.length();
+                };
+            default:
+                throw new IllegalArgumentException("Unknown stage: " + stage);
+        }
+    }
+
+    static String flatExpression(int tokens) { // A flat expression of single digits and alternating operators.
+        StringBuilder expression = new StringBuilder();
+        String operators = "+*-/";
+        for (int i = 0; i < tokens; i += 2) {
+            if (i > 0) {
+                expression.append(operators.charAt((i / 2) % operators.length()));
+            }
+            expression.append((char) ('1' + (i / 2) % 9));
+        }
+        return expression.toString();
+    }
+
+    static String rightDeepExpression(int tokens) { // 1-{2-{3-...}} where every level nests one bracket deeper.
+        int levels = Math.max(0, (tokens - 1) / 4);
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < levels; i++) {
+            expression.append((char) ('1' + i % 9)).append("-{");
+        }
+        expression.append('1');
+        for (int i = 0; i < levels; i++) {
+            expression.append('}');
+        }
+        return expression.toString();
+    }
+
+    static void balancedExpression(Random random, int levels, StringBuilder expression) { // A complete tree of
+                                                                                          // bracketed operations.
+        if (levels == 0) {
+            expression.append((char) ('1' + random.nextInt(9)));
+            return;
+        }
+        expression.append('{');
+        balancedExpression(random, levels - 1, expression);
+        expression.append("+-*/".charAt(random.nextInt(4)));
+        balancedExpression(random, levels - 1, expression);
+        expression.append('}');
+    }
+
+    static List<String> corpus(int size, int terms) { // Random valid expressions with the given number of terms
+                                                      // and some bracketed subexpressions.
+        Random random = new Random(7);
+        List<String> expressions = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            expressions.add(randomExpression(random, terms));
+        }
+        return expressions;
+    }
+
+    static String randomExpression(Random random, int terms) {
+        String operators = "+-*/";
+        StringBuilder expression = new StringBuilder();
+        int open = 0;
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                expression.append(operators.charAt(random.nextInt(operators.length())));
+            }
+            while (random.nextInt(4) == 0) {
+                expression.append('{');
+                open++;
+            }
+            expression.append((char) ('0' + random.nextInt(10)));
+            while (open > 0 && random.nextInt(3) == 0) {
+                expression.append('}');
+                open--;
+            }
+        }
+        for (; open > 0; open--) {
+            expression.append('}');
+        }
+        return expression.toString();
+    }
+
+    static String numberExpression(int tokens) { // A flat expression of multi-digit decimal numbers.
+        Random random = new Random(tokens);
+        StringBuilder expression = new StringBuilder();
+        String operators = "+*-/";
+        for (int i = 0; i < tokens; i += 2) {
+            if (i > 0) {
+                expression.append(operators.charAt((i / 2) % operators.length()));
+            }
+            expression.append(1 + random.nextInt(99_999)).append('.').append(random.nextInt(100));
+        }
+        return expression.toString();
+    }
+
+    static String mixedFormula(Random random, int terms) { // A random expression over the variables a to g and the
+                                                           // constants 0, 1 and 2.
+        StringBuilder formula = new StringBuilder(randomExpression(random, terms));
+        for (int i = 0; i < formula.length(); i++) {
+            char c = formula.charAt(i);
+            if (c >= '3' && c <= '9') {
+                formula.setCharAt(i, (char) ('a' + c - '3'));
+            }
+        }
+        return formula.toString();
+    }
+
+    static String formula(Random random, int terms) { // A random expression over the variables a to j.
+        StringBuilder formula = new StringBuilder(randomExpression(random, terms));
+        for (int i = 0; i < formula.length(); i++) {
+            char c = formula.charAt(i);
+            if (c >= '0' && c <= '9') {
+                formula.setCharAt(i, (char) ('a' + c - '0'));
+            }
+        }
+        return formula.toString();
+    }
+
+    static double[][] columns(Random random, int variables, int rows) { // Non-negative values, so they can be
+                                                                        // spliced into an expression as literals.
+        double[][] columns = new double[variables][rows];
+        for (double[] column : columns) {
+            for (int row = 0; row < rows; row++) {
+                column[row] = random.nextInt(8) == 0 ? random.nextInt(3) : random.nextDouble() * 1000;
+            }
+        }
+        return columns;
+    }
+
+    static String splice(String formula, String[] variables, double[][] columns, int row) { // The formula with
+                                                                                             // the values of a row
+                                                                                             // in place of the
+                                                                                             // single letter
+                                                                                             // variables.
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < formula.length(); i++) {
+            char c = formula.charAt(i);
+            int slot = -1;
+            for (int j = 0; j < variables.length; j++) {
+                if (variables[j].charAt(0) == c) {
+                    slot = j;
+                }
+            }
+            if (slot < 0) {
+                text.append(c);
+            } else {
+                text.append(' ').append(columns[slot][row]).append(' ');
+            }
+        }
+        return text.toString();
+    }
+
+    static String randomText(Random random, String symbols, int length) { // Any sequence of the symbols, which need
+                                                                           // not be a valid expression.
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(symbols.charAt(random.nextInt(symbols.length())));
+        }
+        return text.toString();
+    }
+}
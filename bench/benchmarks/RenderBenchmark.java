@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark { // Both printers writing into a StringBuilder without ANSI codes. The output of deep
+                               // trees grows with the square of the depth, so the sizes are smaller than for the
+                               // other stages.
+    @Param({ "flat", "rightDeep", "bracketed" })
+    public String shape;
+
+    @Param({ "10", "100", "1000" })
+    public int tokens;
+
+    private DoubleSupplier basic;
+    private DoubleSupplier enhanced;
+
+    @Setup
+    public void setup() {
+        basic = Stages.load("renderBasic", shape, tokens);
+        enhanced = Stages.load("renderEnhanced", shape, tokens);
+    }
+
+    @Benchmark
+    public double basic() {
+        return basic.getAsDouble();
+    }
+
+    @Benchmark
+    public double enhanced() {
+        return enhanced.getAsDouble();
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark { // Tokenize, parse, evaluate and compile separately, on every shape of expression,
+                              // with BinaryTree nodes and with a TreeArena.
+    @Param({ "flat", "rightDeep", "bracketed" })
+    public String shape;
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int tokens;
+
+    private DoubleSupplier tokenize;
+    private DoubleSupplier parse;
+    private DoubleSupplier evaluate;
+    private DoubleSupplier compile;
+    private DoubleSupplier program;
+    private DoubleSupplier arenaParse;
+    private DoubleSupplier arenaEvaluate;
+
+    @Setup
+    public void setup() {
+        tokenize = Stages.load("tokenize", shape, tokens);
+        parse = Stages.load("parse", shape, tokens);
+        evaluate = Stages.load("evaluate", shape, tokens);
+        compile = Stages.load("compile", shape, tokens);
+        program = Stages.load("program", shape, tokens);
+        arenaParse = Stages.load("arenaParse", shape, tokens);
+        arenaEvaluate = Stages.load("arenaEvaluate", shape, tokens);
+    }
+
+    @Benchmark
+    public double tokenize() {
+        return tokenize.getAsDouble();
+    }
+
+    @Benchmark
+    public double parse() {
+        return parse.getAsDouble();
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return evaluate.getAsDouble();
+    }
+
+    @Benchmark
+    public double compile() {
+        return compile.getAsDouble();
+    }
+
+    @Benchmark
+    public double program() {
+        return program.getAsDouble();
+    }
+
+    @Benchmark
+    public double arenaParse() {
+        return arenaParse.getAsDouble();
+    }
+
+    @Benchmark
+    public double arenaEvaluate() {
+        return arenaEvaluate.getAsDouble();
+    }
+}
@@ -0,0 +1,19 @@
+package benchmarks;
+
+import java.util.function.DoubleSupplier;
+
+final class Stages { // Loads the workloads prepared by the default-package Workloads class. Classes in a named
+                     // package can not refer to the default package, so the class is looked up by name.
+    private Stages() {
+    }
+
+    static DoubleSupplier load(String stage, String shape, int tokens) {
+        try {
+            return (DoubleSupplier) Class.forName("Workloads")
+                    .getMethod("stage", String.class, String.class, int.class)
+                    .invoke(null, stage, shape, tokens);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not prepare the " + stage + " stage", e);
+        }
+    }
+}
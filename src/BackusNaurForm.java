@@ -1,20 +1,61 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class BackusNaurForm {
-    Input input;
+    Lexer lexer;
     Output output;
+    Interner interner; // When set, structurally identical subtrees are shared instead of built again.
+
+    // State of the chain loop, kept between parses so a reused parser does not allocate for it. Each chain is one
+    // <expression> (multiplicative) or <factor> (additive) rule that is still being parsed, with its operands and
+    // operators on the shared stacks from the given positions on.
+    private int[] operands = new int[16];
+    private int operandCount = 0;
+    private Token[] operators = new Token[16];
+    private int[] operatorOffsets = new int[16];
+    private int operatorCount = 0;
+    private boolean[] chainAdditive = new boolean[16];
+    private int[] chainOperands = new int[16]; // First operand of each chain.
+    private int[] chainOperators = new int[16]; // First operator of each chain.
+    private int chainCount = 0;
+    private int variable; // Offset of the first identifier of the last parse, or -1.
+    private final Trees trees = new Trees();
 
     public BackusNaurForm(Input input) {
-        this.input = input;
+        this(input.getLexer());
+    }
+
+    public BackusNaurForm(Lexer lexer) { // Parse straight from a lexer, which can be reset and reused for the next
+                                         // expression.
+        this.lexer = lexer;
+    }
+
+    public void setInterner(Interner interner) { // Share identical subtrees through the interner, or build a fresh
+                                                 // node for every occurrence when it is null.
+        this.interner = interner;
     }
 
     public Token getToken() {
-        return input.getCurrentToken();
+        return lexer.token();
+    }
+
+    private BinaryTree leaf(Token token) {
+        return interner == null ? new BinaryTree(token) : interner.leaf(token);
+    }
+
+    private BinaryTree node(Token token, BinaryTree left, BinaryTree right) {
+        return interner == null ? new BinaryTree(token, left, right) : interner.node(token, left, right);
     }
 
     public void nextToken() {
-        input.next();
+        lexer.next();
     }
 
     public BinaryTree expression() { // <expression> ::= <factor> * <expression> | <factor> / <expression> | <factor>
@@ -22,7 +63,7 @@ public class BackusNaurForm {
         Token t = getToken();
         if (t.isMultiplicative()) {
             nextToken();
-            return new BinaryTree(t, factorTree, expression());
+            return node(t, factorTree, expression());
         } else {
             return factorTree;
         }
@@ -33,7 +74,7 @@ public class BackusNaurForm {
         Token t = getToken();
         if (t.isAdditive()) {
             nextToken();
-            return new BinaryTree(t, termTree, factor());
+            return node(t, termTree, factor());
         } else {
             return termTree;
         }
@@ -41,7 +82,7 @@ public class BackusNaurForm {
 
     public BinaryTree term() { // <term> ::= { <expression> } | <literal>
 
-        if (getToken().isType(Type.BRACKET)) {
+        if (getToken().isBracket()) { // Either brace opens a bracket, and whatever follows is skipped as the close.
             nextToken();
             BinaryTree expressionTree = expression();
             nextToken();
@@ -51,32 +92,237 @@ public class BackusNaurForm {
         }
     }
 
-    public BinaryTree literal() { // <literal> ::= 0|1|2|3|4|5|6|7|8|9
+    public BinaryTree literal() { // <literal> ::= <number> | <identifier>
 
-        BinaryTree literalTree = new BinaryTree(getToken());
+        BinaryTree literalTree = leaf(getToken());
         nextToken();
         return literalTree;
     }
 
-    public static void main(String[] args) { // The main method to run the program.
+    public BinaryTree parse() { // Stack-safe equivalent of expression(). Instead of recursing once per operator
+                                // and bracket, the right-recursive <expression> and <factor> rules are collected as
+                                // chains on an explicit stack and folded right to left, so the tree is identical to
+                                // the one built by expression() for any input length and nesting depth.
+        return parse(null, false);
+    }
+
+    public boolean parse(ParseResult result) { // Validating variant of parse() that only accepts input that fully
+                                               // matches the grammar: brackets must be closed by '}', literals must
+                                               // be numbers or identifiers, and nothing may follow the expression.
+                                               // Valid input gives the same tree as parse(). Errors are reported
+                                               // with their kind and offset in the result instead of being thrown,
+                                               // so rejecting a malformed line costs no more than parsing a good one.
+        return parse(result, true) != null;
+    }
+
+    private BinaryTree parse(ParseResult result, boolean strict) { // The chain loop with BinaryTree nodes.
+        int root = parse(trees, result, strict);
+        BinaryTree tree = root < 0 ? null : trees.nodes[root];
+        trees.clear();
+        if (strict && tree != null) {
+            result.succeed(tree, variable);
+        }
+        return tree;
+    }
+
+    int parse(TreeBuilder builder, ParseResult result, boolean strict) { // The chain loop of every parser, which
+                                                                          // returns the root made by the builder. The
+                                                                          // lenient one reads any input the way
+                                                                          // expression() does. The strict one stops
+                                                                          // at the first token that does not fit the
+                                                                          // grammar, records it in the result and
+                                                                          // returns -1.
+        long start = Metrics.start();
+        int literals = 0;
+        int depth = 0; // Deepest bracket nesting, which is half the number of chains minus the outermost pair.
+        variable = -1;
+        operandCount = 0;
+        operatorCount = 0;
+        chainCount = 0;
+        pushChain(false);
+        pushChain(true);
+        while (true) {
+            if (lexer.isType(Type.OPEN) || !strict && lexer.isType(Type.CLOSE)) { // <term> ::= { <expression> }, and
+                                                                                    // leniently either brace opens it.
+                nextToken();
+                pushChain(false);
+                pushChain(true);
+                depth = Math.max(depth, chainCount / 2 - 1);
+                continue;
+            }
+            if (strict && !lexer.isType(Type.NUMBER) && !lexer.isType(Type.IDENTIFIER)) {
+                result.fail(lexer.isType(Type.UNKNOWN) ? ParseError.UNKNOWN_CHARACTER
+                        : lexer.isType(Type.END) ? ParseError.UNEXPECTED_END : ParseError.EXPECTED_OPERAND,
+                        lexer.offset());
+                return parsed(start, builder, -1, literals, depth);
+            }
+            if (variable < 0 && lexer.isType(Type.IDENTIFIER)) {
+                variable = lexer.offset();
+            }
+            int tree = builder.leaf(lexer); // <literal>
+            nextToken();
+            literals++;
+            while (true) { // Hand the finished term or bracketed expression to the enclosing chains.
+                int chain = chainCount - 1;
+                boolean additive = chainAdditive[chain];
+                Type t = lexer.type(); // Only an operator is fetched as a token.
+                pushOperand(tree);
+                if (additive ? t == Type.PLUS || t == Type.MINUS : t == Type.MULTIPLY || t == Type.DIVIDE) {
+                    pushOperator(getToken(), lexer.offset());
+                    nextToken();
+                    if (!additive) {
+                        pushChain(true);
+                    }
+                    break;
+                }
+                tree = fold(builder, chain);
+                chainCount--;
+                if (additive) {
+                    continue;
+                }
+                boolean closing = chainCount > 0; // Whether this expression is inside a bracket.
+                if (!strict || lexer.isType(closing ? Type.CLOSE : Type.END)) {
+                    if (!closing) {
+                        return parsed(start, builder, tree, literals, depth);
+                    }
+                    nextToken(); // Skip the closing bracket the same way term() does.
+                    continue;
+                }
+                result.fail(lexer.isType(Type.UNKNOWN) ? ParseError.UNKNOWN_CHARACTER
+                        : lexer.isType(Type.END) ? ParseError.UNCLOSED_BRACKET
+                        : lexer.isType(Type.CLOSE) ? ParseError.UNMATCHED_BRACKET : ParseError.EXPECTED_OPERATOR,
+                        lexer.offset());
+                return parsed(start, builder, -1, literals, depth);
+            }
+        }
+    }
+
+    private int parsed(long start, TreeBuilder builder, int root, int literals, int depth) { // Record the parse
+                                                                                              // when metrics are on.
+                                                                                              // A rejected parse
+                                                                                              // has no tree.
+        if (Metrics.enabled) {
+            Metrics.parsed(start, lexer.count(), root < 0 ? 0 : 2 * literals - 1,
+                    root < 0 ? 0 : builder.height(root), depth);
+        }
+        return root;
+    }
+
+    private int fold(TreeBuilder builder, int chain) { // Link the operands of a chain right to left, as the
+                                                       // right-recursive rules do, and pop them.
+        int first = chainOperands[chain];
+        int firstOperator = chainOperators[chain];
+        int tree = operands[operandCount - 1];
+        for (int i = operandCount - 2; i >= first; i--) {
+            int operator = firstOperator + i - first;
+            tree = builder.node(operators[operator], operatorOffsets[operator], operands[i], tree);
+        }
+        operandCount = first;
+        operatorCount = firstOperator;
+        return tree;
+    }
+
+    private void pushOperand(int node) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+        }
+        operands[operandCount++] = node;
+    }
+
+    private void pushOperator(Token t, int offset) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+            operatorOffsets = Arrays.copyOf(operatorOffsets, operatorCount * 2);
+        }
+        operators[operatorCount] = t;
+        operatorOffsets[operatorCount++] = offset;
+    }
+
+    private void pushChain(boolean additive) {
+        if (chainCount == chainAdditive.length) {
+            chainAdditive = Arrays.copyOf(chainAdditive, chainCount * 2);
+            chainOperands = Arrays.copyOf(chainOperands, chainCount * 2);
+            chainOperators = Arrays.copyOf(chainOperators, chainCount * 2);
+        }
+        chainAdditive[chainCount] = additive;
+        chainOperands[chainCount] = operandCount;
+        chainOperators[chainCount++] = operatorCount;
+    }
+
+    private class Trees implements TreeBuilder { // BinaryTree nodes of parse() by handle, shared through the
+                                                 // interner when there is one. The handles only last one parse.
+        private BinaryTree[] nodes = new BinaryTree[16];
+        private int count = 0;
+
+        @Override
+        public int leaf(Lexer lexer) {
+            return add(BackusNaurForm.this.leaf(lexer.token()));
+        }
+
+        @Override
+        public int node(Token operator, int offset, int left, int right) {
+            return add(BackusNaurForm.this.node(operator, nodes[left], nodes[right]));
+        }
+
+        @Override
+        public int height(int node) {
+            return nodes[node].getHeight();
+        }
+
+        private int add(BinaryTree tree) {
+            if (count == nodes.length) {
+                nodes = Arrays.copyOf(nodes, count * 2);
+            }
+            nodes[count] = tree;
+            return count++;
+        }
+
+        void clear() { // Let go of the nodes once the tree is handed out.
+            Arrays.fill(nodes, 0, count, null);
+            count = 0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException { // The main method to run the program. Any
+                                                                  // arguments select a non-interactive mode.
+        if (args.length > 0 && args[0].equals("--serve")) {
+            EvaluationServer.main(args);
+            return;
+        }
+        if (args.length > 0) {
+            StreamEvaluator.main(args);
+            return;
+        }
 
         Input input = new Input();
         input.open();
         input.requestVisualizationOption();
         input.displayBackusNaurForm();
         input.requestExpression();
-        input.close();
 
         BackusNaurForm backusNaurForm = new BackusNaurForm(input);
 
-        BinaryTree resultTree = backusNaurForm.expression();
+        BinaryTree resultTree = backusNaurForm.parse();
 
-        Output output = new Output(resultTree);
+        Program program = Program.compile(resultTree); // Variables are bound to values read from the user.
+        double[] bindings = input.requestBindings(program.getVariables());
+        input.close();
+
+        Output output = new Output(resultTree, program.evaluate(program.newStack(), bindings));
         output.printResult();
         output.printTree(input.getDisplayOption());
     }
 }
 
+interface TreeBuilder { // Builds the nodes the chain loop of BackusNaurForm asks for, so the same loop can fill
+                        // different kinds of trees. Nodes are referred to by int handles that the builder hands out.
+    int leaf(Lexer lexer); // A leaf for the current token of the lexer.
+
+    int node(Token operator, int offset, int left, int right); // An operator at the offset with its two operands.
+
+    int height(int node); // Height of the subtree at a node, for the metrics.
+}
+
 class BinaryTree {
     private Token token;
 
@@ -136,71 +382,102 @@ class BinaryTree {
         return right;
     }
 
-    public void setLeft(BinaryTree tree) { // Recursive method to set the left subtree and assign the parent of the tree
-                                           // as this instance. Heights of each node are updated as well.
+    public void setLeft(BinaryTree tree) { // Set the left subtree and assign the parent of the tree as this instance.
+                                           // Heights of each node are updated as well.
         this.left = tree;
         if (tree != null) {
             tree.setParent(this);
-            updateHeight();
         }
+        updateHeight();
     }
 
-    public void setRight(BinaryTree tree) { // Recursive method to set the right subtree and assign the parent of the
-                                            // tree as this instance.
+    public void setRight(BinaryTree tree) { // Set the right subtree and assign the parent of the tree as this
+                                            // instance.
         this.right = tree;
         if (tree != null) {
             tree.setParent(this);
-            updateHeight();
         }
+        updateHeight();
     }
 
-    private void updateHeight() { // Reursive method to update the height of each node in the binary tree.
-        height = height();
-        if (parent != null) {
-            parent.updateHeight();
+    private void updateHeight() { // Update the height from the cached heights of the children. Ancestors are only
+                                  // visited while the height actually changes, so linking a subtree into a node
+                                  // without a parent (how the parser builds trees) is O(1).
+        BinaryTree tree = this;
+        while (tree != null) {
+            int updated = tree.height();
+            if (updated == tree.height) {
+                return;
+            }
+            tree.height = updated;
+            tree = tree.parent;
         }
     }
 
-    public int height() { // Evualulate the height of this instance of the binary tree. 
-        return height(this);
+    public int height() { // Evaluate the height of this instance of the binary tree from the heights of its
+                          // children.
+        return 1 + Math.max(height(getLeft()), height(getRight()));
     }
 
-    private int height(BinaryTree tree) { // Evualte the height of the binary tree. 
-        if (tree == null) {
-            return 0;
-        } else {
-            return 1 + Math.max(height(tree.getLeft()), height(tree.getRight()));
-        }
+    private static int height(BinaryTree tree) { // Height of a subtree, where an empty subtree has height zero.
+                                                  // Asks getHeight(), so subclasses that keep their height elsewhere
+                                                  // can be children too.
+        return tree == null ? 0 : tree.getHeight();
     }
 }
 
 enum Type { // Enunmeration used to denote the type of token for parsing and evaluation of
             // the expression tree.
-    INTEGER,
+    NUMBER,
+    IDENTIFIER, // A variable whose value is bound when the expression is evaluated.
     MULTIPLY,
     DIVIDE,
     PLUS,
     MINUS,
-    BRACKET,
+    OPEN, // {
+    CLOSE, // }
+    UNKNOWN, // Any other character that is not part of the grammar.
     END // This type is to denote the end of the parsed input.
 }
 
 class Token {
+    static final Token END = new Token("", Type.END); // Shared token to signify the end of the parsed input.
 
     private String value;
     private Type type;
+    private double number; // Value of a numeric literal, decoded once by the lexer.
+    private boolean numeric;
 
     public Token(String value, Type type) {
         this.value = value;
         this.type = type;
     }
 
+    public Token(String value, double number) { // A numeric literal whose value is already known.
+        this(value, Type.NUMBER);
+        this.number = number;
+        this.numeric = true;
+    }
+
+    public Token(double number) { // A numeric literal read without its text, which prints as its value.
+        this(null, number);
+    }
+
     public String toString() { // Get the value of the token as a string.
-        return value;
+        return value == null ? Double.toString(number) : value;
     }
 
-    public Double toDouble() { // Get the value of the token as a double value.
-        return Double.parseDouble(value);
+    public double toDouble() { // Get the value of a numeric literal. Identifiers are variables and have no value
+                               // of their own, even when their text reads as one like NaN or Infinity, and no other
+                               // token is a number either.
+        if (!numeric) {
+            throw new NumberFormatException("Not a number: " + value);
+        }
+        return number;
+    }
+
+    public boolean isNumeric() {
+        return numeric;
     }
 
     public Type getType() {
@@ -219,6 +496,70 @@ class Token {
         return isType(Type.PLUS) || isType(Type.MINUS);
     }
 
+    public boolean isBracket() { // Check if the token is an opening or closing bracket.
+        return isType(Type.OPEN) || isType(Type.CLOSE);
+    }
+
+}
+
+enum ParseError { // Kinds of malformed input reported by the validating parser.
+    UNKNOWN_CHARACTER, // A character that is not part of the grammar.
+    EXPECTED_OPERAND, // An operator or closing bracket where a literal or bracket should start.
+    EXPECTED_OPERATOR, // A literal or opening bracket right after a complete operand.
+    UNEXPECTED_END, // The input ends where a literal or bracket should start.
+    UNCLOSED_BRACKET, // The input ends inside a bracket.
+    UNMATCHED_BRACKET, // A closing bracket without an opening one.
+    UNBOUND_VARIABLE // An identifier in a valid expression that is evaluated without values for its variables.
+}
+
+class ParseResult { // Outcome of the validating parser, either a tree or an error with the offset of the token it
+                    // was found at. One result can be reused for every parse.
+    private BinaryTree tree;
+    private ParseError error;
+    private int offset;
+    private int variable; // Offset of the first identifier of a valid tree, or -1.
+
+    boolean succeed(BinaryTree tree, int variable) {
+        this.tree = tree;
+        this.error = null;
+        this.offset = -1;
+        this.variable = variable;
+        return true;
+    }
+
+    boolean fail(ParseError error, int offset) {
+        this.tree = null;
+        this.error = error;
+        this.offset = offset;
+        this.variable = -1;
+        return false;
+    }
+
+    boolean requireConstant() { // Fail with UNBOUND_VARIABLE at the first identifier of a valid tree, for
+                                // evaluators that have no values to bind, and return whether the result is still
+                                // valid. The tree can then be evaluated without any literal failing.
+        return variable < 0 || fail(ParseError.UNBOUND_VARIABLE, variable);
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    public BinaryTree getTree() { // The parsed tree, or null if the input is malformed.
+        return tree;
+    }
+
+    public ParseError getError() { // The kind of error, or null if the input is valid.
+        return error;
+    }
+
+    public int getOffset() { // Offset of the character where the error was found, or -1 if the input is valid.
+        return offset;
+    }
+
+    public String toString() {
+        return isValid() ? "VALID" : error + " at " + offset;
+    }
 }
 
 enum Display {
@@ -228,8 +569,7 @@ enum Display {
 
 class Input {
     private Scanner scanner;
-    private ArrayList<Token> tokens;
-    private int index = 0;
+    private Lexer lexer;
     private String input;
     private Token token;
     private Display displayOption;
@@ -240,7 +580,13 @@ class Input {
     private static final String ansiMagenta = "\u001B[35m";
 
     public Input() {
-        this.tokens = new ArrayList<Token>();
+        this.lexer = new Lexer("");
+    }
+
+    public Input(String input) { // Create the input directly from an expression without prompting for it.
+        this();
+        this.input = input;
+        parseInput(input);
     }
 
     public void open() {
@@ -268,11 +614,35 @@ class Input {
                 + "<factor>   " + ansiReset + "|   " + ansiCyan + "<term>");
         System.out.println(ansiCyan + "<term>        " + ansiMagenta + "::=  " + ansiRed + "{  " + ansiCyan
                 + "<expression>  " + ansiRed + "}  " + ansiReset + "|   " + ansiCyan + "<literal>");
-        System.out.println(ansiCyan + "<literal>     " + ansiMagenta + "::=  " + ansiRed + "0 " + ansiReset + "| "
+        System.out.println(ansiCyan + "<literal>     " + ansiMagenta + "::=  " + ansiCyan + "<number>   " + ansiReset
+                + "|   " + ansiCyan + "<identifier>");
+        System.out.println(ansiCyan + "<number>      " + ansiMagenta + "::=  " + ansiCyan + "<digits>  " + ansiReset
+                + "[ " + ansiRed + ".  " + ansiCyan + "<digits> " + ansiReset + "]  [ " + ansiRed + "e  " + ansiReset
+                + "[ " + ansiRed + "+ " + ansiReset + "| " + ansiRed + "- " + ansiReset + "]  " + ansiCyan
+                + "<digits> " + ansiReset + "]");
+        System.out.println(ansiCyan + "<identifier>  " + ansiMagenta + "::=  " + ansiCyan + "<letter>   " + ansiReset
+                + "|   " + ansiCyan + "<identifier>  <letter>   " + ansiReset + "|   " + ansiCyan
+                + "<identifier>  <digit>");
+        System.out.println(ansiCyan + "<digits>      " + ansiMagenta + "::=  " + ansiCyan + "<digit>  " + ansiReset
+                + "|   " + ansiCyan + "<digit>  <digits>");
+        System.out.println(ansiCyan + "<digit>       " + ansiMagenta + "::=  " + ansiRed + "0 " + ansiReset + "| "
                 + ansiRed + "1 " + ansiReset + "| " + ansiRed + "2 " + ansiReset + "| " + ansiRed + "3 " + ansiReset
                 + "| " + ansiRed + "4 " + ansiReset + "| " + ansiRed + "5 " + ansiReset + "| " + ansiRed + "6 "
                 + ansiReset + "| " + ansiRed + "7 " + ansiReset + "| " + ansiRed + "8 " + ansiReset + "| " + ansiRed
                 + "9 ");
+        System.out.println(ansiCyan + "<letter>      " + ansiMagenta + "::=  " + ansiRed + "a " + ansiReset + "| "
+                + ansiRed + "b " + ansiReset + "| ... | " + ansiRed + "z " + ansiReset + "| " + ansiRed + "A "
+                + ansiReset + "| ... | " + ansiRed + "Z " + ansiReset + "| " + ansiRed + "_ ");
+    }
+
+    public double[] requestBindings(String[] variables) { // Request a value for every variable of the expression.
+        double[] bindings = new double[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            System.out.print(ansiReset + "ENTER A VALUE FOR " + ansiCyan + variables[i] + ansiReset + ": " + ansiCyan);
+            bindings[i] = Double.parseDouble(scanner.nextLine().trim());
+        }
+        System.out.println(ansiReset);
+        return bindings;
     }
 
     public void requestVisualizationOption() { // Method to request what type of format of the tree representation
@@ -281,7 +651,7 @@ class Input {
         System.out.println(ansiRed + "[ 1 ] " + ansiCyan + "Basic");
         System.out.println(ansiRed + "[ 2 ] " + ansiCyan + "Enhanced");
         System.out.println(ansiOrange + "\nWARNING: " + ansiReset
-                + "Enhanced visualization requires a large terminal window for large binary trees. If window is not large enough, the binary tree will not be printed correctly.");
+                + "Enhanced visualization requires a large terminal window for large binary trees. If the binary tree is wider than the window (COLUMNS), the basic visualization is printed instead.");
         System.out.print("\nENTER AN OPTION NUMBER: " + ansiCyan);
         int dO = scanner.nextInt();
         System.out.println(ansiReset);
@@ -294,32 +664,9 @@ class Input {
         return input;
     }
 
-    private void parseInput(String input) { // Parse the input into seperate elements in an array while ignoring any
-                                            // possible spaces.
-        for (char c : input.toCharArray()) {
-            if (!Character.isWhitespace(c)) {
-                tokens.add(new Token(String.valueOf(c), getType(c)));
-            }
-        }
-    }
-
-    private Type getType(char c) { // Evaluate the type of token based on the String value of the token.
-        switch (c) {
-            case '*':
-                return Type.MULTIPLY;
-            case '/':
-                return Type.DIVIDE;
-            case '+':
-                return Type.PLUS;
-            case '-':
-                return Type.MINUS;
-            case '{':
-                return Type.BRACKET;
-            case '}':
-                return Type.BRACKET;
-            default:
-                return Type.INTEGER;
-        }
+    private void parseInput(String input) { // Point the lexer at the input. Tokens are read one at a time while
+                                            // parsing and any possible spaces are skipped.
+        lexer.reset(input);
     }
 
     private Display getType(int displayOption) { // Evaluate the type of display for the binary tree.
@@ -341,16 +688,16 @@ class Input {
         return token;
     }
 
+    public Lexer getLexer() {
+        return lexer;
+    }
+
     public Token getCurrentToken() {
-        return (index < tokens.size()) ? tokens.get(index) : new Token("", Type.END); // Ternary operator to return a
-                                                                                      // new Token to signify the end of
-                                                                                      // the parsed input, avoid
-                                                                                      // NullPointerException, and end
-                                                                                      // the recursion.
+        return lexer.token();
     }
 
-    public void next() { // Increment the index to select the next token to be evaluated.
-        index++;
+    public void next() { // Advance to the next token to be evaluated.
+        lexer.next();
     }
 
 }
@@ -358,141 +705,270 @@ class Input {
 class Output {
     private BinaryTree bnf;
     private double result;
-    private String[][] treeMatrix;
-    private int height;
-    private int width;
-    private int arcLength;
 
     private static final String ansiReset = "\u001B[0m";
     private static final String ansiRed = "\u001B[1;31m";
     private static final String ansiOrange = "\u001B[33m";
     private static final String ansiCyan = "\u001B[36m";
     private static final String ansiMagenta = "\u001B[35m";
-    private static final String arcLine = ansiRed + "o" + ansiReset;
+    private static final int defaultColumns = 160; // Terminal width used when COLUMNS is not set.
 
     public Output(BinaryTree bnf) {
         this.bnf = bnf;
         this.result = evaluate();
     }
 
-    private int scaleArcLength(int height) {
-        return (int) Math.pow(2, height) / 4;
+    public Output(BinaryTree bnf, double result) { // Output for a tree that was already evaluated, for example with
+                                                   // bound variables.
+        this.bnf = bnf;
+        this.result = result;
     }
 
-    private void generateTreeMatrix() { // Using height to determine arcLength and width of the matrix for any binary
-                                        // tree. General method to call to generate the tree matrix for the Ehanced
-                                        // visualization option.
-        this.height = bnf.getHeight();
-        this.width = (int) Math.pow(2, height) - 1;
-        this.arcLength = scaleArcLength(height);
-        this.treeMatrix = new String[arcLength * 2][width];
-        generateTreeMatrix(bnf, 0, width / 2, arcLength);
+    private boolean printEnhancedTree() { // Method to print the binary tree to terminal for the Enhanced option.
+        try {
+            return printEnhancedTree(bnf, System.out, true, terminalColumns());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private void generateTreeMatrix(BinaryTree tree, int y, int x, int arc) { // Implemented Professor's pseudocode for
-                                                                              // drawing a tree,
-        // but the output is not preferred as it is effected by
-        // the window size of the terminal, especially for larger binary trees that
-        // require a larger arc length.
-        if (tree != null) {
-            String node = tree.getRoot().toString();
-            treeMatrix[y][x] = (node.matches("[+\\-*/]") ? ansiCyan : ansiOrange) +
-                    node + ansiReset;
-
-            if (tree.getLeft() != null) {
-                for (int i = 1; i <= arc; i++) {
-                    treeMatrix[y + i][x - i] = arcLine;
+    static boolean printEnhancedTree(BinaryTree bnf, Appendable out, boolean ansi, int maxColumns)
+            throws IOException { // Every node gets its own column range from an in-order traversal and a row from
+                                 // its depth, so memory and time grow with the number of nodes. Rows are built one at
+                                 // a time and written with one append each. Returns false without writing anything
+                                 // if the tree is wider than maxColumns.
+        TreeLayout layout = new TreeLayout(bnf);
+        if (layout.width > maxColumns) {
+            return false;
+        }
+        String red = ansi ? ansiRed : "";
+        String reset = ansi ? ansiReset : "";
+        StringBuilder row = new StringBuilder();
+        for (int depth = 0; depth < layout.rows; depth++) {
+            row.setLength(0);
+            int column = 0;
+            for (int i = layout.rowStart[depth]; i < layout.rowStart[depth + 1]; i++) {
+                int node = layout.byRow[i];
+                column = pad(row, column, layout.columns[node]);
+                Token token = layout.nodes.get(node).getRoot();
+                if (ansi) {
+                    row.append(token.isAdditive() || token.isMultiplicative() ? ansiCyan : ansiOrange);
                 }
-                generateTreeMatrix(tree.getLeft(), y + arc, x - arc, arc / 2);
+                row.append(token.toString()).append(reset);
+                column += token.toString().length();
             }
-            if (tree.getRight() != null) {
-                for (int i = 1; i <= arc; i++) {
-                    treeMatrix[y + i][x + i] = arcLine;
+            out.append(row.append('\n'));
+
+            if (depth + 1 < layout.rows) { // Connect every node of this row to its children on the next row.
+                row.setLength(0);
+                row.append(red);
+                column = 0;
+                int child = layout.rowStart[depth + 1];
+                for (int i = layout.rowStart[depth]; i < layout.rowStart[depth + 1]; i++) {
+                    int node = layout.byRow[i];
+                    BinaryTree tree = layout.nodes.get(node);
+                    int center = layout.center(node);
+                    while (child < layout.rowStart[depth + 2] && layout.center(layout.byRow[child]) < center) {
+                        child++; // The left child is the last node of the next row before the parent.
+                    }
+                    int from = tree.getLeft() != null ? layout.center(layout.byRow[child - 1]) : center;
+                    int to = tree.getRight() != null ? layout.center(layout.byRow[child]) : center;
+                    if (from == to) {
+                        continue;
+                    }
+                    column = pad(row, column, from);
+                    for (; column <= to; column++) {
+                        row.append(column == center ? (from == center ? '└' : to == center ? '┘' : '┴')
+                                : column == from ? '┌' : column == to ? '┐' : '─');
+                    }
                 }
-                generateTreeMatrix(tree.getRight(), y + arc, x + arc, arc / 2);
+                out.append(row.append(reset).append('\n'));
             }
         }
+        return true;
     }
 
-    private void printEnhancedTree() { // Method to print the binary tree to terminal for the Enhanced option.
-        generateTreeMatrix();
-        for (String[] row : treeMatrix) {
-            for (String value : row) {
-                System.out.print(value != null ? value : ".");
-                System.out.print(""); // Adjust the x spacing of the grid.
-            }
-            System.out.println(""); // Adjust the y spacing of the grid.
+    private static int pad(StringBuilder row, int column, int target) { // Pad the row with spaces up to the
+                                                                        // target column.
+        for (; column < target; column++) {
+            row.append(' ');
         }
+        return column;
     }
 
-    private void printBasicTree() {
-        printBasicTree(bnf, "");
+    private static int terminalColumns() {
+        try {
+            return Integer.parseInt(System.getenv("COLUMNS"));
+        } catch (NumberFormatException e) {
+            return defaultColumns;
+        }
     }
 
-    private void printBasicTree(BinaryTree tree, String prefix) { // A more basic/compact visualization of a binary tree
-                                                                  // that is not limited by the size of the binary tree
-                                                                  // or window size of the terminal. This method prints
-                                                                  // directly to the terminal instead of using a matrix.
-        if (tree != null) {
-            String node = tree.getRoot().toString();
-            String coloredNode = (node.matches("[+\\-*/]") ? ansiCyan : ansiMagenta) + node + ansiReset;
-            String drawLeft = ansiRed + "└── " + ansiReset;
-            String drawRight = ansiRed + "│" + ansiOrange + "└── " + ansiReset;
-            if (tree.isRoot()) { // If the current tree is the root, print only the colored node without a
-                                 // prefix.
-                System.out.println(coloredNode);
-            } else {
-                System.out.println(prefix + (tree.isLeft() ? drawLeft : drawRight) + coloredNode);
+    private static class TreeLayout { // Compact layout of a tree. Nodes are numbered in in-order, which is also
+                                      // their left to right order on screen.
+        final ArrayList<BinaryTree> nodes = new ArrayList<BinaryTree>();
+        int[] columns = new int[16]; // First column of the label of each node.
+        int[] depths = new int[16];
+        int[] byRow; // Node numbers sorted by depth and then by column.
+        int[] rowStart; // Index in byRow of the first node of each depth, plus one extra entry for the end.
+        int rows;
+        int width;
+
+        TreeLayout(BinaryTree root) {
+            ArrayDeque<BinaryTree> stack = new ArrayDeque<BinaryTree>();
+            int[] stackDepths = new int[16];
+            BinaryTree tree = root;
+            int depth = 0;
+            while (tree != null || !stack.isEmpty()) { // Iterative in-order traversal.
+                while (tree != null) {
+                    if (stack.size() == stackDepths.length) {
+                        stackDepths = Arrays.copyOf(stackDepths, stack.size() * 2);
+                    }
+                    stackDepths[stack.size()] = depth++;
+                    stack.push(tree);
+                    tree = tree.getLeft();
+                }
+                depth = stackDepths[stack.size() - 1];
+                tree = stack.pop();
+                int node = nodes.size();
+                if (node == columns.length) {
+                    columns = Arrays.copyOf(columns, node * 2);
+                    depths = Arrays.copyOf(depths, node * 2);
+                }
+                columns[node] = width;
+                depths[node] = depth;
+                nodes.add(tree);
+                rows = Math.max(rows, depth + 1);
+                width += tree.getRoot().toString().length() + 1;
+                tree = tree.getRight();
+                depth++;
             }
+            width = Math.max(0, width - 1);
 
-            if (tree.getRight() != null) {
-                printBasicTree(tree.getRight(),
-                        ansiRed + (tree.isRoot() ? prefix : prefix + (tree.isLeft() ? "    " : "│    "))); // If current
-                                                                                                           // tree is
-                                                                                                           // root, do
-                                                                                                           // not change
-                                                                                                           // the index.
-                                                                                                           // If the
-                                                                                                           // current
-                                                                                                           // tree is
-                                                                                                           // not the
-                                                                                                           // root
-                                                                                                           // adjust the
-                                                                                                           // prefix
-                                                                                                           // based on
-                                                                                                           // if the
-                                                                                                           // current
-                                                                                                           // tree is
-                                                                                                           // the left
-                                                                                                           // or right
-                                                                                                           // child.
+            rowStart = new int[rows + 2]; // Counting sort of the nodes by depth keeps the in-order within a row.
+            for (int node = 0; node < nodes.size(); node++) {
+                rowStart[depths[node] + 1]++;
+            }
+            for (int row = 0; row < rows; row++) {
+                rowStart[row + 1] += rowStart[row];
+            }
+            rowStart[rows + 1] = rowStart[rows];
+            byRow = new int[nodes.size()];
+            int[] next = Arrays.copyOf(rowStart, rows);
+            for (int node = 0; node < nodes.size(); node++) {
+                byRow[next[depths[node]]++] = node;
             }
+        }
 
-            if (tree.getLeft() != null) {
-                printBasicTree(tree.getLeft(),
-                        ansiRed + (tree.isRoot() ? prefix : prefix + (tree.isRight() ? "│    " : "    "))); // This is
-                                                                                                            // similar
-                                                                                                            // to the
+        int center(int node) { // Column in the middle of the label of a node.
+            return columns[node] + (nodes.get(node).getRoot().toString().length() - 1) / 2;
+        }
+    }
+
+    private void printBasicTree() { // Print the basic visualization through one buffered writer.
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            printBasicTree(bnf, out, true);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void printBasicTree(BinaryTree tree, Appendable out, boolean ansi) throws IOException { // A more
+        // basic/compact visualization of a binary tree that is not limited by the size of the binary tree or window
+        // size of the terminal. Nodes are written in one pass in pre-order, right subtree first, from an explicit
+        // stack. All lines share one prefix buffer that is cut back to the length of each node's prefix, and
+        // whether a node is a left child is kept on the stack, so shared subtrees of interned trees are drawn
+        // correctly. Without ansi the tree is plain text, for example for log files.
+        String red = ansi ? ansiRed : "";
+        String reset = ansi ? ansiReset : "";
+        String drawLeft = red + "└── " + reset;
+        String drawRight = red + "│" + (ansi ? ansiOrange : "") + "└── " + reset;
+        String spaceLeft = red + "    ";
+        String spaceRight = red + "│    ";
+        StringBuilder prefix = new StringBuilder();
+        BinaryTree[] nodes = new BinaryTree[16];
+        int[] prefixLengths = new int[16];
+        boolean[] lefts = new boolean[16];
+        int top = 0;
+
+        appendNode(out, tree, ansi).append('\n'); // The root is printed without a prefix.
+        if (tree.getLeft() != null) { // Pushed first so the right subtree is printed before the left one.
+            nodes[top] = tree.getLeft();
+            lefts[top++] = true;
+        }
+        if (tree.getRight() != null) {
+            nodes[top] = tree.getRight();
+            lefts[top++] = false;
+        }
+        while (top > 0) {
+            BinaryTree node = nodes[--top];
+            boolean left = lefts[top];
+            prefix.setLength(prefixLengths[top]);
+            appendNode(out.append(prefix).append(left ? drawLeft : drawRight), node, ansi).append('\n');
+
+            if (node.isLeaf()) {
+                continue;
             }
+            prefix.append(left ? spaceLeft : spaceRight); // Adjust the prefix based on if the current tree is
+                                                          // the left or right child.
+            if (top + 2 > nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                prefixLengths = Arrays.copyOf(prefixLengths, nodes.length);
+                lefts = Arrays.copyOf(lefts, nodes.length);
+            }
+            if (node.getLeft() != null) {
+                nodes[top] = node.getLeft();
+                prefixLengths[top] = prefix.length();
+                lefts[top++] = true;
+            }
+            if (node.getRight() != null) {
+                nodes[top] = node.getRight();
+                prefixLengths[top] = prefix.length();
+                lefts[top++] = false;
+            }
+        }
+    }
 
+    private static Appendable appendNode(Appendable out, BinaryTree tree, boolean ansi) throws IOException {
+        Token token = tree.getRoot(); // Operators and literals are colored by their type.
+        if (!ansi) {
+            return out.append(token.toString());
         }
+        return out.append(token.isAdditive() || token.isMultiplicative() ? ansiCyan : ansiMagenta)
+                .append(token.toString()).append(ansiReset);
     }
 
     public void printTree(Display displayOption) {
+        long start = Metrics.start();
         System.out.println("\nEXPRESSION BINARY TREE:\n");
         switch (displayOption) {
             case BASIC:
                 printBasicTree();
-                System.out.println("\nLEGEND:\t" + ansiCyan + "Operator   " + ansiRed + "Left   " + ansiOrange
-                        + "Right   " + ansiMagenta + "Integer\n" + ansiReset);
+                printLegend();
                 break;
             case ENHANCED:
-                printEnhancedTree();
-                System.out.println();
+                if (printEnhancedTree()) {
+                    System.out.println();
+                } else { // Degrade to the compact layout rather than wrapping the rows.
+                    System.out.println(ansiOrange + "WARNING: " + ansiReset + "The binary tree is wider than the "
+                            + "terminal, so the basic visualization is printed instead.\n");
+                    printBasicTree();
+                    printLegend();
+                }
                 break;
             default:
                 throw new IllegalArgumentException();
         }
+        if (Metrics.enabled) {
+            Metrics.measured(Metrics.Stage.RENDER, start, Metrics.size(bnf));
+        }
+    }
+
+    private void printLegend() {
+        System.out.println("\nLEGEND:\t" + ansiCyan + "Operator   " + ansiRed + "Left   " + ansiOrange + "Right   "
+                + ansiMagenta + "Literal\n" + ansiReset);
     }
 
     public void printResult() {
@@ -503,22 +979,56 @@ class Output {
         return evaluate(bnf);
     }
 
-    private double evaluate(BinaryTree tree) { // Evaluate the expression tree.
-        if (tree.isLeaf()) {
-            return tree.getRoot().toDouble();
-        } else {
-            switch (tree.getRoot().getType()) {
-                case PLUS:
-                    return evaluate(tree.getLeft()) + evaluate(tree.getRight());
-                case MINUS:
-                    return evaluate(tree.getLeft()) - evaluate(tree.getRight());
-                case MULTIPLY:
-                    return evaluate(tree.getLeft()) * evaluate(tree.getRight());
-                case DIVIDE:
-                    return evaluate(tree.getLeft()) / evaluate(tree.getRight());
-                default:
-                    throw new IllegalArgumentException();
+    private static final BinaryTree apply = new BinaryTree(Token.END); // Marks that the operator below it on the
+                                                                        // stack can be applied.
+
+    static double evaluate(BinaryTree tree) { // Evaluate the expression tree in post-order with an explicit stack,
+                                              // so the depth of the tree is not limited by the call stack.
+        long start = Metrics.start();
+        int nodes = 0;
+        ArrayDeque<BinaryTree> pending = new ArrayDeque<BinaryTree>();
+        double[] values = new double[16];
+        int count = 0;
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            BinaryTree node = pending.pop();
+            if (node == apply) {
+                BinaryTree operator = pending.pop();
+                count--;
+                values[count - 1] = apply(operator.getRoot().getType(), values[count - 1], values[count]);
+                continue;
             }
+            nodes++;
+            if (node.isLeaf()) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = node.getRoot().toDouble();
+            } else {
+                pending.push(node);
+                pending.push(apply);
+                pending.push(node.getRight());
+                pending.push(node.getLeft());
+            }
+        }
+        if (Metrics.enabled) {
+            Metrics.measured(Metrics.Stage.EVALUATE, start, nodes);
+        }
+        return values[0];
+    }
+
+    static double apply(Type operator, double left, double right) { // Apply a binary operator to two values.
+        switch (operator) {
+            case PLUS:
+                return left + right;
+            case MINUS:
+                return left - right;
+            case MULTIPLY:
+                return left * right;
+            case DIVIDE:
+                return left / right;
+            default:
+                throw new IllegalArgumentException();
         }
     }
 }
@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+class BatchEvaluator implements AutoCloseable { // Evaluate many expressions at once. The batch is split across the
+                                                // threads of a fork-join pool, and every thread reuses its own lexer
+                                                // and parser so no parsing state is shared. An optional cache skips
+                                                // parsing and evaluating expressions that were seen before.
+    private static final int minimumSplit = 256; // Smallest number of expressions worth handing to another thread.
+    private static final int chunkSize = 1 << 16; // Expressions of a stream that are held at once.
+
+    private final ForkJoinPool pool;
+    private final ExpressionCache cache;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> new Worker());
+
+    public BatchEvaluator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchEvaluator(int parallelism) {
+        this(parallelism, null);
+    }
+
+    public BatchEvaluator(int parallelism, ExpressionCache cache) { // The cache may be null to always reparse.
+        this.pool = new ForkJoinPool(parallelism);
+        this.cache = cache;
+        if (Metrics.enabled && cache != null) {
+            Metrics.register(this, cache);
+        }
+    }
+
+    public ExpressionCache getCache() {
+        return cache;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public BatchResult evaluate(Stream<String> expressions) { // Evaluate a stream of any length a chunk at a time,
+                                                              // so only the results are kept for all of it.
+        Iterator<String> iterator = expressions.iterator();
+        List<String> chunk = new ArrayList<String>();
+        BatchResult result = new BatchResult(0);
+        int size = 0;
+        while (iterator.hasNext()) {
+            chunk.clear();
+            while (chunk.size() < chunkSize && iterator.hasNext()) {
+                chunk.add(iterator.next());
+            }
+            result.reserve(size + chunk.size());
+            evaluate(chunk, result, size);
+            size += chunk.size();
+        }
+        result.trim(size);
+        return result;
+    }
+
+    public BatchResult evaluate(List<String> expressions) { // Evaluate every expression. Failures are recorded per
+                                                            // item and do not stop the rest of the batch.
+        BatchResult result = new BatchResult(expressions.size());
+        evaluate(expressions, result, 0);
+        return result;
+    }
+
+    private void evaluate(List<String> expressions, BatchResult result, int offset) { // Results go to the items
+                                                                                      // from the offset on.
+        int split = Math.max(minimumSplit, expressions.size() / (pool.getParallelism() * 8));
+        pool.invoke(new Task(expressions, result, offset, 0, expressions.size(), split));
+    }
+
+    @Override
+    public void close() { // Stop the threads and stop reporting the cache to the metrics.
+        if (Metrics.enabled) {
+            Metrics.unregister(this);
+        }
+        pool.shutdown();
+    }
+
+    @SuppressWarnings("serial") // Tasks only live inside the pool and are never serialized.
+    private class Task extends RecursiveAction { // Evaluate the expressions from start up to end, splitting the
+                                                 // range in halves while it is larger than split.
+        private final List<String> expressions;
+        private final BatchResult result;
+        private final int offset; // Item of the result for the first expression of the list.
+        private final int start;
+        private final int end;
+        private final int split;
+
+        Task(List<String> expressions, BatchResult result, int offset, int start, int end, int split) {
+            this.expressions = expressions;
+            this.result = result;
+            this.offset = offset;
+            this.start = start;
+            this.end = end;
+            this.split = split;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > split) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Task(expressions, result, offset, start, middle, split),
+                        new Task(expressions, result, offset, middle, end, split));
+            } else {
+                Worker worker = workers.get();
+                for (int i = start; i < end; i++) {
+                    worker.evaluate(expressions.get(i), result, offset + i);
+                }
+            }
+        }
+    }
+
+    private class Worker { // Parsing state owned by a single thread. Expressions go through the validating parser,
+                           // so malformed ones, and ones with variables that have no values, are recorded as errors
+                           // with their kind and offset without throwing.
+        private final Lexer lexer = new Lexer("");
+        private final BackusNaurForm parser = new BackusNaurForm(lexer);
+        private final ParseResult parsed = new ParseResult();
+        private final StringBuilder key = new StringBuilder();
+
+        void evaluate(String expression, BatchResult result, int index) {
+            if (cache == null) {
+                lexer.reset(expression);
+                if (parser.parse(parsed) && parsed.requireConstant()) {
+                    result.setValue(index, Output.evaluate(parsed.getTree()));
+                } else {
+                    result.setError(index, parsed.toString());
+                }
+                return;
+            }
+            String normalized = ExpressionCache.normalize(expression, lexer, key);
+            CachedExpression entry = cache.get(normalized);
+            if (entry == null) { // The original has the same tokens as the key, and the offsets of its errors are
+                                 // the ones to report, so it is the one parsed.
+                lexer.reset(expression);
+                if (!parser.parse(parsed) || !parsed.requireConstant()) {
+                    result.setError(index, parsed.toString());
+                    return;
+                }
+                entry = new CachedExpression(parsed.getTree());
+                cache.put(normalized, entry);
+            }
+            result.setValue(index, entry.getValue());
+        }
+    }
+}
+
+class BatchResult { // Results of a batch evaluation. Failed items have a NaN value and an error message.
+    private double[] values;
+    private String[] errors;
+
+    BatchResult(int size) {
+        this.values = new double[size];
+        this.errors = new String[size];
+    }
+
+    void reserve(int size) { // Make room for at least the given number of items while a stream is evaluated.
+        if (size > values.length) {
+            int capacity = Math.max(size, values.length * 2);
+            values = Arrays.copyOf(values, capacity);
+            errors = Arrays.copyOf(errors, capacity);
+        }
+    }
+
+    void trim(int size) { // Drop the room left over once the stream has ended.
+        if (size < values.length) {
+            values = Arrays.copyOf(values, size);
+            errors = Arrays.copyOf(errors, size);
+        }
+    }
+
+    void setValue(int index, double value) {
+        values[index] = value;
+    }
+
+    void setError(int index, String error) {
+        values[index] = Double.NaN;
+        errors[index] = error;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    public boolean isError(int index) {
+        return errors[index] != null;
+    }
+
+    public String getError(int index) { // The error message of a failed item, or null if it succeeded.
+        return errors[index];
+    }
+
+    public int getErrorCount() {
+        int count = 0;
+        for (String error : errors) {
+            if (error != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
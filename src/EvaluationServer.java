@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+class EvaluationServer { // Long-running service mode. Clients send newline-delimited expressions over a local TCP
+                         // or Unix domain socket and get one result line back per expression, in order. One thread
+                         // runs a selector loop over all connections, so requests can be pipelined: every complete
+                         // line that has arrived is evaluated and answered without waiting for the client to read
+                         // the earlier results. A connection stops being read while its output buffer is full, so a
+                         // client that does not read can not make the server buffer without bound.
+    static final int defaultPort = 7878;
+    private static final int bufferCapacity = 1 << 16; // Input and output buffer of each connection, which is also
+                                                       // the longest line a connection accepts.
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final LineEvaluator evaluator = new LineEvaluator(); // Only used by the selector thread.
+    private volatile boolean running = true;
+
+    public EvaluationServer(SocketAddress address) throws IOException { // Bind to the address. Use port 0 for any
+                                                                        // free port.
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath()); // Left over from an earlier run.
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        server.configureBlocking(false);
+        this.address = server.getLocalAddress();
+        this.selector = Selector.open();
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public static void main(String[] args) throws IOException { // Usage: --serve [<port> | unix:<path>]
+        EvaluationServer server = new EvaluationServer(address(args.length > 1 ? args[1] : null));
+        System.err.println("Listening on " + server.getAddress());
+        server.run();
+    }
+
+    static SocketAddress address(String address) { // A loopback port, or a Unix domain socket path prefixed with
+                                                   // "unix:". Null gives the default port.
+        if (address == null) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), defaultPort);
+        }
+        if (address.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(address.substring("unix:".length()));
+        }
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    public void run() throws IOException { // Serve connections until close() is called.
+        try {
+            while (running) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        connection.handle();
+                    } catch (IOException e) { // The client went away, which only ends its own connection.
+                        connection.close();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            if (address instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+        }
+    }
+
+    public void close() { // Stop the selector loop from any thread. Open connections are closed.
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private class Connection { // Buffers of one client. Input holds the bytes received but not yet evaluated, output
+                               // the results not yet written.
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocateDirect(bufferCapacity);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(bufferCapacity);
+        private SelectionKey key;
+        private boolean ended; // The client shut down its side, so only the remaining results are written.
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void handle() throws IOException {
+            if (key.isReadable() && !ended) {
+                if (channel.read(input) < 0) {
+                    ended = true;
+                }
+            }
+            boolean pending;
+            do { // Keep going while a full output buffer was the only thing holding lines back.
+                pending = evaluateLines();
+                output.flip();
+                channel.write(output);
+                output.compact();
+            } while (pending && output.position() == 0);
+            if (!pending && input.position() == input.capacity()) { // No newline in a full buffer.
+                throw new IOException("Line is longer than " + bufferCapacity + " bytes");
+            }
+            if (ended && !pending && output.position() == 0) {
+                close();
+                return;
+            }
+            int interest = output.position() > 0 ? SelectionKey.OP_WRITE : 0;
+            if (!pending && !ended) { // Only read more once every complete line has been answered.
+                interest |= SelectionKey.OP_READ;
+            }
+            key.interestOps(interest);
+        }
+
+        private boolean evaluateLines() { // Evaluate complete lines while the results fit the output buffer. Returns
+                                          // whether complete lines are left for later.
+            int end = input.position();
+            int lineStart = 0;
+            boolean pending = false;
+            for (int i = 0; i < end; i++) {
+                if (input.get(i) == '\n') {
+                    if (output.remaining() < LineEvaluator.maxResultLength) {
+                        pending = true;
+                        break;
+                    }
+                    evaluator.evaluate(input, lineStart, i, output);
+                    lineStart = i + 1;
+                }
+            }
+            if (ended && !pending && lineStart < end) { // The last line does not need a newline.
+                if (output.remaining() < LineEvaluator.maxResultLength) {
+                    pending = true;
+                } else {
+                    evaluator.evaluate(input, lineStart, end, output);
+                    lineStart = end;
+                }
+            }
+            input.flip();
+            input.position(lineStart);
+            input.compact();
+            return pending;
+        }
+
+        void close() throws IOException {
+            key.cancel();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+class ExpressionCache { // Bounded cache of parsed expressions keyed by the normalized expression text, where any
+                        // whitespace the lexer skips is reduced to a single space between tokens. Entries are spread
+                        // over independently locked LRU segments, so lookups from many threads do not contend on one
+                        // global lock.
+    private static final int defaultSegments = 16;
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpressionCache(int capacity) {
+        this(capacity, defaultSegments);
+    }
+
+    public ExpressionCache(int capacity, int segmentCount) { // The capacity is shared between the segments, the
+                                                              // first ones holding one entry more when it does not
+                                                              // divide evenly, so the cache never exceeds it.
+        if (capacity < 1 || segmentCount < 1) {
+            throw new IllegalArgumentException();
+        }
+        int count = Integer.highestOneBit(Math.min(segmentCount, capacity)); // A power of two for masking.
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+        }
+    }
+
+    public static String normalize(CharSequence expression) { // The tokens of the expression separated by single
+                                                               // spaces. Whitespace between two numbers separates
+                                                               // them, so it can not simply be dropped.
+        return normalize(expression, new Lexer(expression), new StringBuilder(expression.length()));
+    }
+
+    static String normalize(CharSequence expression, Lexer lexer, StringBuilder key) { // The same with a lexer and a
+                                                                                        // builder that the caller
+                                                                                        // reuses. Both are reset.
+        key.setLength(0);
+        for (lexer.reset(expression); !lexer.isType(Type.END); lexer.next()) {
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+            key.append(expression, lexer.offset(), lexer.end());
+        }
+        return key.toString();
+    }
+
+    public CachedExpression get(String key) { // Look up a normalized expression, or null if it is not cached.
+        CachedExpression entry = segmentFor(key).get(key);
+        (entry == null ? misses : hits).increment();
+        return entry;
+    }
+
+    public void put(String key, CachedExpression entry) {
+        segmentFor(key).put(key, entry);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    private class Segment { // One LRU partition of the cache, guarded by its own lock.
+        private final LinkedHashMap<String, CachedExpression> entries;
+
+        Segment(int capacity) {
+            this.entries = new LinkedHashMap<String, CachedExpression>(16, 0.75f, true) { // Access order.
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedExpression> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized CachedExpression get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, CachedExpression entry) {
+            entries.put(key, entry);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
+
+class CachedExpression { // A parsed expression with its compiled program and value. The program is compiled from
+                         // the simplified tree, since a cached expression may be evaluated again.
+    private final BinaryTree tree;
+    private final Program program;
+    private final double value;
+
+    public CachedExpression(BinaryTree tree) {
+        this.tree = tree;
+        this.program = Program.compile(new Simplifier().simplify(tree));
+        this.value = program.evaluate();
+    }
+
+    public BinaryTree getTree() {
+        return tree;
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    public double getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,485 @@
+import java.util.Arrays;
+
+class IncrementalExpression { // An expression that is edited in place, for editors that send the text again after
+                              // every keystroke. An edit only re-lexes the tokens around it until the new tokens line
+                              // up with the old ones again. The parser memoizes the tree and value of every
+                              // <expression>, <factor> and <term> by the token it starts at, together with how far it
+                              // looked ahead, so after an edit only the rules whose tokens changed are parsed again.
+                              // Every other subtree is reused with its cached value, and evaluating only combines the
+                              // values along the rebuilt path to the root. The tree is the same as parse() builds, and
+                              // its value the same as Output.evaluate() gives.
+    private static final byte EXPRESSION = 0;
+    private static final byte FACTOR = 1;
+    private static final byte TERM = 2;
+    private static final int lookahead = 2; // Characters the lexer reads past the end of a token, for the sign and
+                                            // first digit of an exponent.
+
+    private final GapText text = new GapText();
+    private final Lexer lexer = new Lexer("");
+
+    // Tokens, and the results of the rules that start at them, are kept in gap buffers with the gap at the last edit.
+    // An edit moves the slots between the previous gap and its own, and nothing after it. Token i is in slot i before
+    // the gap and in slot i + gapLength after it. The slot after the last token is for Token.END, so it is never
+    // before the gap.
+    private Token[] tokens = new Token[17];
+    private int[] starts = new int[17]; // Offset of each token in the text. After the gap, the offset from the end of
+                                        // the text, so the tokens after an edit stay valid when the text moves.
+    private int[] ends = new int[17];
+    private int count = 0; // Number of tokens. Token.END is at index count.
+    private int gapStart = 0; // Index of the first token after the gap.
+    private int gapLength = 16;
+
+    // Result of every rule by the slot of its first token. Indices are relative to that token, so the entries after
+    // an edit stay valid when they move. An empty tree means the rule has to be parsed again.
+    private final BinaryTree[][] trees = new BinaryTree[3][17];
+    private final int[][] consumed = new int[3][17]; // Tokens the rule consumed.
+    private final int[][] examined = new int[3][17]; // Last token the rule looked at, including its lookahead.
+    private final double[][] values = new double[3][17];
+    private final boolean[][] failed = new boolean[3][17]; // Whether a leaf of the subtree is not a number.
+
+    private int[] reach = new int[64]; // Max tree over the slots before the gap of the last token a rule starting
+                                       // there looked at, or -1 without rules. The leaves are the second half, so an
+                                       // edit finds the rules before it that looked past it without a scan.
+
+    // Rules being parsed, as an explicit stack so the depth of the input is not limited by the call stack.
+    private byte[] frameRules = new byte[16];
+    private byte[] frameStates = new byte[16];
+    private int[] frameStarts = new int[16];
+    private int[] frameExamined = new int[16];
+    private Token[] frameOperators = new Token[16];
+    private BinaryTree[] frameLefts = new BinaryTree[16];
+    private double[] frameLeftValues = new double[16];
+    private boolean[] frameLeftFailed = new boolean[16];
+    private int frameCount = 0;
+
+    // Result of the rule that completed last.
+    private BinaryTree resultTree;
+    private double resultValue;
+    private boolean resultFailed;
+    private int resultEnd;
+    private int resultExamined;
+
+    private Token[] newTokens = new Token[16]; // Tokens of the edited text that replace old ones.
+    private int[] newStarts = new int[16];
+    private int[] newEnds = new int[16];
+
+    private int relexedTokens;
+    private int builtNodes;
+
+    public IncrementalExpression(CharSequence text) {
+        Arrays.fill(reach, -1);
+        edit(0, 0, text);
+    }
+
+    public void edit(int offset, int removed, CharSequence inserted) { // Replace the removed characters at the offset
+                                                                        // with the inserted text, then update the
+                                                                        // tree and its value.
+        if (offset < 0 || removed < 0 || offset + removed > text.length()) {
+            throw new IndexOutOfBoundsException("Edit of " + removed + " characters at " + offset + " in "
+                    + text.length());
+        }
+        int first = firstAffected(offset);
+        moveGap(first);
+        text.replace(offset, removed, inserted);
+        if (reach[1] >= first) {
+            invalidate(1, 0, reach.length / 2, first);
+        }
+
+        lexer.reset(text, first == 0 ? 0 : ends[first - 1]);
+        int editEnd = offset + inserted.length();
+        int old = first; // Old token that may start where the next new token does.
+        int added = 0;
+        while (!lexer.isType(Type.END)) {
+            int start = lexer.offset();
+            if (start >= editEnd) { // Past the edit, an old token at the same place is followed by the same tokens.
+                while (old < count && start(old) < start) {
+                    old++;
+                }
+                if (old < count && start(old) == start) {
+                    break;
+                }
+            }
+            if (added == newTokens.length) {
+                newTokens = Arrays.copyOf(newTokens, added * 2);
+                newStarts = Arrays.copyOf(newStarts, added * 2);
+                newEnds = Arrays.copyOf(newEnds, added * 2);
+            }
+            newTokens[added] = lexer.token();
+            newStarts[added] = start;
+            newEnds[added++] = lexer.end();
+            lexer.next();
+        }
+        if (lexer.isType(Type.END)) {
+            old = count;
+        }
+        splice(first, old, added);
+        relexedTokens = added;
+
+        builtNodes = 0;
+        parse();
+    }
+
+    private int firstAffected(int offset) { // First token whose text or extent may change with an edit at the offset.
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (end(middle) + lookahead < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void moveGap(int index) { // Move the gap in front of the token at the index. Offsets of the tokens that
+                                      // cross it change between counting from the start and from the end.
+        int length = text.length();
+        if (index < gapStart) {
+            copySlots(index, index + gapLength, gapStart - index);
+            for (int slot = index + gapLength; slot < gapStart + gapLength; slot++) {
+                starts[slot] -= length;
+                ends[slot] -= length;
+            }
+            clearSlots(index, Math.min(gapStart, index + gapLength));
+        } else if (index > gapStart) {
+            copySlots(gapStart + gapLength, gapStart, index - gapStart);
+            for (int slot = gapStart; slot < index; slot++) {
+                starts[slot] += length;
+                ends[slot] += length;
+            }
+            updateReach(gapStart, index);
+            clearSlots(Math.max(index, gapStart + gapLength), index + gapLength);
+        }
+        gapStart = index;
+    }
+
+    private void splice(int first, int old, int added) { // Replace the old tokens from first to old, which are the
+                                                          // first ones after the gap, with the new ones in front of it.
+        clearSlots(first + gapLength, old + gapLength);
+        gapLength += old - first;
+        count -= old - first;
+        if (added > gapLength) {
+            grow(added);
+        }
+        System.arraycopy(newTokens, 0, tokens, gapStart, added);
+        System.arraycopy(newStarts, 0, starts, gapStart, added);
+        System.arraycopy(newEnds, 0, ends, gapStart, added);
+        Arrays.fill(newTokens, 0, added, null);
+        updateReach(gapStart, gapStart + added); // No rule starting there is parsed yet.
+        gapStart += added;
+        gapLength -= added;
+        count += added;
+    }
+
+    private void grow(int needed) { // Make room for at least the needed number of slots in the gap.
+        int capacity = Math.max(tokens.length - gapLength + needed, tokens.length * 2);
+        int tail = tokens.length - gapStart - gapLength;
+        int from = gapStart + gapLength;
+        int to = capacity - tail;
+        tokens = Arrays.copyOf(tokens, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        for (int rule = 0; rule < trees.length; rule++) {
+            trees[rule] = Arrays.copyOf(trees[rule], capacity);
+            consumed[rule] = Arrays.copyOf(consumed[rule], capacity);
+            examined[rule] = Arrays.copyOf(examined[rule], capacity);
+            values[rule] = Arrays.copyOf(values[rule], capacity);
+            failed[rule] = Arrays.copyOf(failed[rule], capacity);
+        }
+        copySlots(from, to, tail);
+        clearSlots(from, Math.min(to, from + tail));
+        gapLength = to - gapStart;
+        if (capacity > reach.length / 2) {
+            reach = new int[2 * Integer.highestOneBit(capacity * 2 - 1)];
+            Arrays.fill(reach, -1);
+            updateReach(0, gapStart);
+        }
+    }
+
+    private void copySlots(int from, int to, int length) {
+        System.arraycopy(tokens, from, tokens, to, length);
+        System.arraycopy(starts, from, starts, to, length);
+        System.arraycopy(ends, from, ends, to, length);
+        for (int rule = 0; rule < trees.length; rule++) {
+            System.arraycopy(trees[rule], from, trees[rule], to, length);
+            System.arraycopy(consumed[rule], from, consumed[rule], to, length);
+            System.arraycopy(examined[rule], from, examined[rule], to, length);
+            System.arraycopy(values[rule], from, values[rule], to, length);
+            System.arraycopy(failed[rule], from, failed[rule], to, length);
+        }
+    }
+
+    private void clearSlots(int from, int to) { // Slots in the gap hold no tokens or trees.
+        Arrays.fill(tokens, from, to, null);
+        for (int rule = 0; rule < trees.length; rule++) {
+            Arrays.fill(trees[rule], from, to, null);
+        }
+    }
+
+    private void invalidate(int node, int low, int high, int first) { // Drop the results of the rules in the slots
+                                                                       // from low to high that looked at the first
+                                                                       // token after the gap or past it. Only
+                                                                       // subtrees that reach it are visited.
+        if (low >= gapStart || reach[node] < first) {
+            return;
+        }
+        if (high - low == 1) {
+            for (int rule = 0; rule < trees.length; rule++) {
+                if (low + examined[rule][low] >= first) {
+                    trees[rule][low] = null;
+                }
+            }
+            reach[node] = farthest(low);
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        invalidate(2 * node, low, middle, first);
+        invalidate(2 * node + 1, middle, high, first);
+        reach[node] = Math.max(reach[2 * node], reach[2 * node + 1]);
+    }
+
+    private void updateReach(int slot) { // Record how far the rules of a slot before the gap looked.
+        int node = reach.length / 2 + slot;
+        reach[node] = farthest(slot);
+        for (node >>>= 1; node > 0; node >>>= 1) {
+            int max = Math.max(reach[2 * node], reach[2 * node + 1]);
+            if (reach[node] == max) {
+                return;
+            }
+            reach[node] = max;
+        }
+    }
+
+    private void updateReach(int from, int to) { // The same for a range of slots, one level of the tree at a time.
+        if (from == to) {
+            return;
+        }
+        int low = reach.length / 2 + from;
+        int high = reach.length / 2 + to - 1;
+        for (int node = low; node <= high; node++) {
+            reach[node] = farthest(node - reach.length / 2);
+        }
+        for (low >>>= 1, high >>>= 1; low > 0; low >>>= 1, high >>>= 1) {
+            for (int node = low; node <= high; node++) {
+                reach[node] = Math.max(reach[2 * node], reach[2 * node + 1]);
+            }
+        }
+    }
+
+    private int farthest(int slot) { // Last token looked at by a rule starting in a slot before the gap, or -1.
+        int farthest = -1;
+        for (int rule = 0; rule < trees.length; rule++) {
+            if (trees[rule][slot] != null) {
+                farthest = Math.max(farthest, slot + examined[rule][slot]);
+            }
+        }
+        return farthest;
+    }
+
+    private int slot(int index) {
+        return index < gapStart ? index : index + gapLength;
+    }
+
+    private int start(int index) {
+        return index < gapStart ? starts[index] : starts[index + gapLength] + text.length();
+    }
+
+    private int end(int index) {
+        return index < gapStart ? ends[index] : ends[index + gapLength] + text.length();
+    }
+
+    private void parse() { // Run <expression> from the first token, reusing the results of the rules that are left.
+        call(EXPRESSION, 0);
+        while (frameCount > 0) {
+            int frame = frameCount - 1;
+            int start = frameStarts[frame];
+            byte rule = frameRules[frame];
+            switch (frameStates[frame]++) {
+                case 0:
+                    if (rule != TERM) { // <expression> and <factor> start with their operand.
+                        call(rule == EXPRESSION ? FACTOR : TERM, start);
+                    } else if (tokenAt(start).isBracket()) { // Either brace opens a bracket, as in term().
+                        frameExamined[frame] = start;
+                        call(EXPRESSION, start + 1);
+                    } else { // A literal is a leaf, whatever its type.
+                        Token token = tokenAt(start);
+                        boolean invalid = !token.isNumeric(); // Output.evaluate() reports it if it is evaluated.
+                        builtNodes++;
+                        complete(new BinaryTree(token), invalid ? 0 : token.toDouble(), invalid,
+                                Math.min(start + 1, count), start);
+                    }
+                    break;
+                case 1:
+                    if (rule == TERM) { // Skip the token after the bracketed expression.
+                        complete(resultTree, resultValue, resultFailed, Math.min(resultEnd + 1, count),
+                                Math.max(frameExamined[frame], resultExamined));
+                        break;
+                    }
+                    Token operator = tokenAt(resultEnd);
+                    int examinedEnd = Math.max(resultExamined, resultEnd);
+                    if (rule == EXPRESSION ? operator.isMultiplicative() : operator.isAdditive()) {
+                        frameExamined[frame] = examinedEnd;
+                        frameOperators[frame] = operator;
+                        frameLefts[frame] = resultTree;
+                        frameLeftValues[frame] = resultValue;
+                        frameLeftFailed[frame] = resultFailed;
+                        call(rule, resultEnd + 1);
+                    } else {
+                        complete(resultTree, resultValue, resultFailed, resultEnd, examinedEnd);
+                    }
+                    break;
+                default:
+                    builtNodes++;
+                    Token token = frameOperators[frame];
+                    BinaryTree left = frameLefts[frame];
+                    frameOperators[frame] = null;
+                    frameLefts[frame] = null;
+                    complete(new BinaryTree(token, left, resultTree),
+                            Output.apply(token.getType(), frameLeftValues[frame], resultValue),
+                            frameLeftFailed[frame] || resultFailed, resultEnd,
+                            Math.max(frameExamined[frame], resultExamined));
+                    break;
+            }
+        }
+    }
+
+    private void call(byte rule, int start) { // Reuse the result of a rule, or push it to be parsed.
+        int slot = slot(start);
+        BinaryTree tree = trees[rule][slot];
+        if (tree != null) {
+            resultTree = tree;
+            resultValue = values[rule][slot];
+            resultFailed = failed[rule][slot];
+            resultEnd = start + consumed[rule][slot];
+            resultExamined = start + examined[rule][slot];
+            return;
+        }
+        if (frameCount == frameRules.length) {
+            int capacity = frameCount * 2;
+            frameRules = Arrays.copyOf(frameRules, capacity);
+            frameStates = Arrays.copyOf(frameStates, capacity);
+            frameStarts = Arrays.copyOf(frameStarts, capacity);
+            frameExamined = Arrays.copyOf(frameExamined, capacity);
+            frameOperators = Arrays.copyOf(frameOperators, capacity);
+            frameLefts = Arrays.copyOf(frameLefts, capacity);
+            frameLeftValues = Arrays.copyOf(frameLeftValues, capacity);
+            frameLeftFailed = Arrays.copyOf(frameLeftFailed, capacity);
+        }
+        frameRules[frameCount] = rule;
+        frameStates[frameCount] = 0;
+        frameStarts[frameCount++] = start;
+    }
+
+    private void complete(BinaryTree tree, double value, boolean invalid, int end, int examinedEnd) { // Record the
+                                                                                                       // result of
+                                                                                                       // the rule on
+                                                                                                       // top.
+        int frame = --frameCount;
+        byte rule = frameRules[frame];
+        int start = frameStarts[frame];
+        int slot = slot(start);
+        trees[rule][slot] = tree;
+        values[rule][slot] = value;
+        failed[rule][slot] = invalid;
+        consumed[rule][slot] = end - start;
+        examined[rule][slot] = examinedEnd - start;
+        if (start < gapStart) {
+            updateReach(slot);
+        }
+        resultTree = tree;
+        resultValue = value;
+        resultFailed = invalid;
+        resultEnd = end;
+        resultExamined = examinedEnd;
+    }
+
+    private Token tokenAt(int index) {
+        return index < count ? tokens[slot(index)] : Token.END;
+    }
+
+    public BinaryTree getTree() { // The current tree. Unchanged subtrees are shared with the trees of earlier
+                                  // versions, and their parent is the node of the latest one.
+        return trees[EXPRESSION][slot(0)];
+    }
+
+    public double evaluate() { // Value of the current tree, kept up to date by every edit.
+        if (failed[EXPRESSION][slot(0)]) {
+            return Output.evaluate(getTree()); // Throws the same exception for the literal that is not a number.
+        }
+        return values[EXPRESSION][slot(0)];
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    public int getRelexedTokens() { // Tokens scanned by the last edit.
+        return relexedTokens;
+    }
+
+    public int getBuiltNodes() { // Nodes created by the last edit. Every other node was reused.
+        return builtNodes;
+    }
+
+    private static class GapText implements CharSequence { // Text with a gap at the last edit, so an edit only moves
+                                                           // the characters between it and the previous one.
+        private char[] chars = new char[16];
+        private int gapStart = 0;
+        private int gapLength = 16;
+
+        void replace(int offset, int removed, CharSequence inserted) {
+            if (offset < gapStart) {
+                System.arraycopy(chars, offset, chars, offset + gapLength, gapStart - offset);
+            } else {
+                System.arraycopy(chars, gapStart + gapLength, chars, gapStart, offset - gapStart);
+            }
+            gapStart = offset;
+            gapLength += removed;
+            int length = inserted.length();
+            if (length > gapLength) {
+                int capacity = Math.max(chars.length - gapLength + length, chars.length * 2);
+                int tail = chars.length - gapStart - gapLength;
+                char[] grown = Arrays.copyOf(chars, capacity);
+                System.arraycopy(chars, chars.length - tail, grown, capacity - tail, tail);
+                gapLength = capacity - gapStart - tail;
+                chars = grown;
+            }
+            for (int i = 0; i < length; i++) {
+                chars[gapStart++] = inserted.charAt(i);
+            }
+            gapLength -= length;
+        }
+
+        @Override
+        public int length() {
+            return chars.length - gapLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index < gapStart ? index : index + gapLength];
+        }
+
+        @Override
+        public String subSequence(int start, int end) {
+            if (start < 0 || start > end || end > length()) {
+                throw new IndexOutOfBoundsException("Range " + start + " to " + end + " in " + length());
+            }
+            if (end <= gapStart) {
+                return new String(chars, start, end - start);
+            }
+            if (start >= gapStart) {
+                return new String(chars, start + gapLength, end - start);
+            }
+            return new StringBuilder(end - start).append(chars, start, gapStart - start)
+                    .append(chars, gapStart + gapLength, end - gapStart).toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+class Interner { // Hash-consing of expression trees. Structurally identical subtrees are built once and shared, so
+                 // a parsed expression becomes a DAG. Unique nodes are numbered in the order they are created, which
+                 // is always children before parents, so evaluating is one pass over the nodes that computes each
+                 // unique node once. Values are memoized, so nodes shared with earlier expressions are free.
+                 // Shared nodes have more than one parent, so getParent(), isLeft() and isRight() are not meaningful
+                 // for interned trees.
+    private final HashMap<Key, BinaryTree> unique = new HashMap<Key, BinaryTree>();
+    private final IdentityHashMap<BinaryTree, Integer> ids = new IdentityHashMap<BinaryTree, Integer>();
+    private final ArrayList<BinaryTree> nodes = new ArrayList<BinaryTree>();
+    private int[] lefts = new int[16]; // Id of the left child of each node, or -1 for a leaf.
+    private int[] rights = new int[16];
+    private double[] values = new double[16];
+    private int evaluated = 0; // Nodes with an id below this have their value memoized.
+    private long requested = 0; // Nodes that would have been built without interning.
+    private final Key probe = new Key(); // Reused for lookups, so only new unique nodes allocate a key.
+
+    public BinaryTree leaf(Token token) {
+        return intern(token, null, null);
+    }
+
+    public BinaryTree node(Token token, BinaryTree left, BinaryTree right) {
+        return intern(token, left, right);
+    }
+
+    private BinaryTree intern(Token token, BinaryTree left, BinaryTree right) {
+        requested++;
+        int leftId = left == null ? -1 : ids.get(left);
+        int rightId = right == null ? -1 : ids.get(right);
+        BinaryTree tree = unique.get(probe.set(token, leftId, rightId));
+        if (tree == null) {
+            tree = left == null ? new BinaryTree(token) : new BinaryTree(token, left, right);
+            int id = nodes.size();
+            if (id == lefts.length) {
+                lefts = Arrays.copyOf(lefts, id * 2);
+                rights = Arrays.copyOf(rights, id * 2);
+                values = Arrays.copyOf(values, id * 2);
+            }
+            lefts[id] = leftId;
+            rights[id] = rightId;
+            nodes.add(tree);
+            ids.put(tree, id);
+            unique.put(new Key().set(token, leftId, rightId), tree);
+        }
+        return tree;
+    }
+
+    public double evaluate(BinaryTree tree) { // Evaluate an interned tree, computing every unique node up to it
+                                              // that has not been computed before exactly once.
+        int root = ids.get(tree);
+        for (; evaluated <= root; evaluated++) {
+            int left = lefts[evaluated];
+            Token token = nodes.get(evaluated).getRoot();
+            values[evaluated] = left < 0 ? token.toDouble()
+                    : Output.apply(token.getType(), values[left], values[rights[evaluated]]);
+        }
+        return values[root];
+    }
+
+    public long getRequestedNodes() { // Node count before interning.
+        return requested;
+    }
+
+    public int getUniqueNodes() { // Node count after interning.
+        return nodes.size();
+    }
+
+    public void clear() { // Forget all interned nodes, for example between unrelated expressions.
+        unique.clear();
+        ids.clear();
+        nodes.clear();
+        evaluated = 0;
+        requested = 0;
+    }
+
+    private static final class Key { // Operators and literals are compared by their text, children by their id.
+        private Type type;
+        private String value;
+        private int left;
+        private int right;
+
+        Key set(Token token, int left, int right) {
+            this.type = token.getType();
+            this.value = token.toString();
+            this.left = left;
+            this.right = right;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return type == key.type && left == key.left && right == key.right && value.equals(key.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((type.ordinal() * 31 + value.hashCode()) * 31 + left) * 31 + right;
+        }
+    }
+}
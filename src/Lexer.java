@@ -0,0 +1,213 @@
+class Lexer { // Cursor style tokenizer over a CharSequence. The current token is exposed by its type, offsets and, for
+              // numeric literals, its value as a primitive double without allocating anything. A Token is only handed
+              // out when the parser needs one for the tree.
+    private static final Token[] asciiTokens = new Token[128]; // Shared tokens for every single ASCII character.
+    private static final double[] powersOfTen = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 }; // Every power of ten a double holds exactly.
+    private static final int maxDigits = 18; // Significant digits that always fit in a long.
+
+    static {
+        for (char c = 0; c < asciiTokens.length; c++) {
+            asciiTokens[c] = isDigit(c) ? new Token(String.valueOf(c), c - '0')
+                    : new Token(String.valueOf(c), typeOf(c));
+        }
+    }
+
+    private CharSequence text;
+    private int length;
+    private int offset; // Offset of the current token, or the length of the text once the end is reached.
+    private int end; // Offset just past the current token.
+    private Type type;
+    private boolean numeric; // Whether the current token was scanned as a numeric literal.
+    private double number;
+    private int count; // Tokens read since the last reset.
+    private boolean keepText = true;
+
+    public Lexer(CharSequence text) {
+        reset(text);
+    }
+
+    public void reset(CharSequence text) { // Start reading a new expression, so one lexer can be reused.
+        reset(text, 0);
+    }
+
+    public void reset(CharSequence text, int from) { // Start reading at an offset, which must not be inside a token.
+        this.text = text;
+        this.length = text.length();
+        this.count = 0;
+        scan(from);
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public boolean isType(Type type) {
+        return this.type == type;
+    }
+
+    public double number() { // Value of the current numeric literal.
+        return number;
+    }
+
+    public int count() { // Number of tokens read so far, including the current one but not the end.
+        return count;
+    }
+
+    public void setKeepText(boolean keepText) { // Whether numeric tokens keep their text. Without it they only hold
+                                                // their value, which is enough to evaluate a tree but not to print it
+                                                // as it was written.
+        this.keepText = keepText;
+    }
+
+    public Token token() { // The current token. Single character tokens are shared, and Token.END is returned past
+                           // the end of the input.
+        if (type == Type.END) {
+            return Token.END;
+        }
+        char c = text.charAt(offset);
+        if (end - offset == 1 && c < asciiTokens.length) {
+            return asciiTokens[c];
+        }
+        if (numeric && !keepText) {
+            return new Token(number);
+        }
+        String value = text.subSequence(offset, end).toString();
+        return numeric ? new Token(value, number) : new Token(value, type);
+    }
+
+    public void next() { // Advance to the next token. Once the end is reached the lexer stays there.
+        if (offset < length) {
+            scan(end);
+        }
+    }
+
+    private void scan(int from) { // Skip any possible spaces and read the token the cursor lands on.
+        int i = from;
+        while (i < length && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        offset = i;
+        numeric = false;
+        if (i >= length) {
+            type = Type.END;
+            end = length;
+            return;
+        }
+        count++;
+        char c = text.charAt(i);
+        if (isDigit(c) || (c == '.' && i + 1 < length && isDigit(text.charAt(i + 1)))) {
+            scanNumber(i);
+        } else if (isLetter(c)) { // An identifier runs over letters, digits and underscores.
+            int j = i + 1;
+            while (j < length && (isLetter(text.charAt(j)) || isDigit(text.charAt(j)))) {
+                j++;
+            }
+            type = Type.IDENTIFIER;
+            end = j;
+        } else {
+            type = typeOf(c);
+            end = i + 1;
+        }
+    }
+
+    private void scanNumber(int start) { // Read <digits> [ . <digits> ] [ e [ + | - ] <digits> ] and decode it while
+                                         // reading. Up to 18 significant digits are accumulated in a long with a
+                                         // decimal exponent. When both fit a double exactly, a single multiplication
+                                         // or division gives the correctly rounded value; anything else falls back to
+                                         // Double.parseDouble.
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean truncated = false;
+        boolean fraction = false;
+        int i = start;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            if (!isDigit(c)) {
+                break;
+            }
+            if (digits < maxDigits) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (fraction) {
+                    exponent--;
+                }
+            } else {
+                if (!fraction) {
+                    exponent++;
+                }
+                truncated |= c != '0';
+            }
+        }
+
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) { // The exponent only belongs to the
+                                                                              // literal if digits follow.
+            int j = i + 1;
+            boolean negative = j < length && text.charAt(j) == '-';
+            if (j < length && (text.charAt(j) == '-' || text.charAt(j) == '+')) {
+                j++;
+            }
+            if (j < length && isDigit(text.charAt(j))) {
+                int value = 0;
+                for (; j < length && isDigit(text.charAt(j)); j++) {
+                    value = Math.min(value * 10 + (text.charAt(j) - '0'), 100_000); // Far beyond any double.
+                }
+                exponent += negative ? -value : value;
+                i = j;
+            }
+        }
+
+        type = Type.NUMBER;
+        numeric = true;
+        end = i;
+        if (mantissa == 0) {
+            number = 0.0;
+        } else if (!truncated && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            number = exponent >= 0 ? mantissa * powersOfTen[exponent] : mantissa / powersOfTen[-exponent];
+        } else {
+            number = Double.parseDouble(text.subSequence(start, end).toString());
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    static Type typeOf(char c) { // Evaluate the type of token based on the character of the token.
+        switch (c) {
+            case '*':
+                return Type.MULTIPLY;
+            case '/':
+                return Type.DIVIDE;
+            case '+':
+                return Type.PLUS;
+            case '-':
+                return Type.MINUS;
+            case '{':
+                return Type.OPEN;
+            case '}':
+                return Type.CLOSE;
+            default:
+                return isLetter(c) ? Type.IDENTIFIER : isDigit(c) ? Type.NUMBER : Type.UNKNOWN;
+        }
+    }
+}
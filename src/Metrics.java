@@ -0,0 +1,283 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+class Metrics implements MetricsMXBean { // Instrumentation of the stages of the pipeline: a latency histogram per
+                                         // stage, token and node counts, the largest tree height and bracket depth,
+                                         // and the hits of the expression caches. Every measurement is also
+                                         // committed as a JFR event, and the totals are exposed through JMX.
+                                         // Metrics are off unless the JVM runs with -Dbnf.metrics=true. The flag is
+                                         // a static final constant, so the JIT removes the instrumentation entirely
+                                         // when it is off.
+    static final boolean enabled = Boolean.getBoolean("bnf.metrics");
+    static final Metrics instance = new Metrics();
+
+    enum Stage {
+        PARSE,
+        COMPILE,
+        EVALUATE,
+        RENDER
+    }
+
+    private final Histogram[] histograms = new Histogram[Stage.values().length];
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+    private final LongAccumulator maxHeight = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final Map<BatchEvaluator, ExpressionCache> caches = Collections.synchronizedMap(
+            new WeakHashMap<BatchEvaluator, ExpressionCache>()); // Cache of every open batch evaluator that has one.
+                                                                 // Weak, so an evaluator that is never closed is
+                                                                 // still collected.
+
+    static {
+        if (enabled) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName("bnf:type=Metrics"));
+            } catch (JMException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private Metrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    static long start() { // Start time of a measured stage, or zero when metrics are off.
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    static void parsed(long start, int tokens, int nodes, int height, int depth) {
+        long elapsed = System.nanoTime() - start;
+        instance.record(Stage.PARSE, elapsed);
+        instance.tokens.add(tokens);
+        instance.nodes.add(nodes);
+        instance.maxHeight.accumulate(height);
+        instance.maxDepth.accumulate(depth);
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = Stage.PARSE.name();
+            event.elapsed = elapsed;
+            event.tokens = tokens;
+            event.nodes = nodes;
+            event.height = height;
+            event.depth = depth;
+            event.commit();
+        }
+    }
+
+    static void measured(Stage stage, long start, int nodes) { // A stage that works on a tree or program of the
+                                                               // given size.
+        long elapsed = System.nanoTime() - start;
+        instance.record(stage, elapsed);
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = stage.name();
+            event.elapsed = elapsed;
+            event.nodes = nodes;
+            event.commit();
+        }
+    }
+
+    static int size(BinaryTree tree) { // Number of nodes of a tree, for stages that do not count them anyway.
+        ArrayDeque<BinaryTree> pending = new ArrayDeque<BinaryTree>();
+        pending.push(tree);
+        int size = 0;
+        while (!pending.isEmpty()) {
+            BinaryTree node = pending.pop();
+            size++;
+            if (!node.isLeaf()) {
+                pending.push(node.getLeft());
+                pending.push(node.getRight());
+            }
+        }
+        return size;
+    }
+
+    static void register(BatchEvaluator evaluator, ExpressionCache cache) { // Report the hits of the cache until
+                                                                            // the evaluator is closed.
+        instance.caches.put(evaluator, cache);
+    }
+
+    static void unregister(BatchEvaluator evaluator) {
+        instance.caches.remove(evaluator);
+    }
+
+    private void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getStages() {
+        Map<String, Long> stages = new LinkedHashMap<String, Long>();
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = histograms[stage.ordinal()];
+            String name = stage.name().toLowerCase();
+            long count = histogram.count.sum();
+            stages.put(name + ".count", count);
+            stages.put(name + ".meanNanos", count == 0 ? 0 : histogram.total.sum() / count);
+            stages.put(name + ".p50Nanos", histogram.percentile(0.5));
+            stages.put(name + ".p99Nanos", histogram.percentile(0.99));
+            stages.put(name + ".maxNanos", histogram.max.get());
+        }
+        return stages;
+    }
+
+    @Override
+    public long getTokens() {
+        return tokens.sum();
+    }
+
+    @Override
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    @Override
+    public long getMaxHeight() {
+        return maxHeight.get();
+    }
+
+    @Override
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return sum(ExpressionCache::getHits);
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return sum(ExpressionCache::getMisses);
+    }
+
+    private long sum(ToLongFunction<ExpressionCache> statistic) { // Total over the caches of the open evaluators,
+                                                                  // counting a cache they share once.
+        Set<ExpressionCache> counted = Collections.newSetFromMap(new IdentityHashMap<ExpressionCache, Boolean>());
+        long sum = 0;
+        synchronized (caches) {
+            for (ExpressionCache cache : caches.values()) {
+                if (counted.add(cache)) {
+                    sum += statistic.applyAsLong(cache);
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public void reset() { // Histograms are cleared in place, so stages that are being recorded keep their histogram.
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        tokens.reset();
+        nodes.reset();
+        maxHeight.reset();
+        maxDepth.reset();
+    }
+
+    static class Histogram { // Log-linear latency histogram. Every power of two is split into four buckets, so a
+                             // percentile is accurate to 25% over the whole range of a long.
+        private static final int buckets = 4 * 63;
+
+        final AtomicLongArray counts = new AtomicLongArray(buckets);
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        void reset() { // Clear every bucket. A value recorded at the same time may be kept in some of the totals and
+                       // not in others, but it is never recorded into a histogram that is no longer reported.
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                counts.set(bucket, 0);
+            }
+            count.reset();
+            total.reset();
+            max.reset();
+        }
+
+        long percentile(double fraction) { // Upper bound of the bucket holding the percentile, or zero if empty.
+            long rank = (long) Math.ceil(fraction * count.sum());
+            long seen = 0;
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                seen += counts.get(bucket);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(bucket), max.get());
+                }
+            }
+            return 0;
+        }
+
+        static int bucket(long value) {
+            if (value < 4) {
+                return (int) value;
+            }
+            int log = 63 - Long.numberOfLeadingZeros(value);
+            return (log - 1) * 4 + (int) ((value >>> (log - 2)) & 3);
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < 4) {
+                return bucket;
+            }
+            int log = bucket / 4 + 1;
+            long lower = (4L + bucket % 4) << (log - 2);
+            return lower + (1L << (log - 2)) - 1;
+        }
+    }
+
+    @Name("bnf.Stage")
+    @Label("Expression Stage")
+    @Category("Backus Naur Form")
+    @Description("One run of a stage of the expression pipeline")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Nodes")
+        int nodes;
+
+        @Label("Height")
+        int height;
+
+        @Label("Bracket Depth")
+        int depth;
+    }
+}
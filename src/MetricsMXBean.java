@@ -0,0 +1,21 @@
+import java.util.Map;
+
+public interface MetricsMXBean { // Management interface of Metrics, registered as "bnf:type=Metrics". It has to be
+                                 // public for JMX to read it.
+    Map<String, Long> getStages(); // Count, mean, p50, p99 and maximum in nanoseconds of every stage, keyed by
+                                   // "<stage>.<statistic>".
+
+    long getTokens();
+
+    long getNodes();
+
+    long getMaxHeight();
+
+    long getMaxDepth();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    void reset();
+}
@@ -0,0 +1,258 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class Program { // An expression tree compiled to a flat postfix program for repeated evaluation. Literals are
+                // decoded to doubles once at compile time, and evaluating is one loop over the instructions with a
+                // primitive operand stack. Identifiers are loaded from bindings, so a formula is parsed and compiled
+                // once and then evaluated for one set of values at a time or for whole columns of values.
+    static final byte PUSH = 0;
+    static final byte ADD = 1;
+    static final byte SUBTRACT = 2;
+    static final byte MULTIPLY = 3;
+    static final byte DIVIDE = 4;
+    static final byte LOAD = 5;
+
+    private static final double[] noBindings = new double[0];
+    private static final int blockRows = 512; // Rows evaluated per instruction, so a block of every stack slot stays
+                                              // in the L1 cache.
+
+    private final byte[] code;
+    private final double[] constants; // Operands of the PUSH instructions in the order they are executed.
+    private final int[] slots; // Binding index of the LOAD instructions in the order they are executed.
+    private final String[] variables; // Names of the variables in the order they first appear.
+    private final int maxDepth; // Largest number of values on the operand stack while evaluating.
+
+    private Program(byte[] code, double[] constants, int[] slots, String[] variables, int maxDepth) {
+        this.code = code;
+        this.constants = constants;
+        this.slots = slots;
+        this.variables = variables;
+        this.maxDepth = maxDepth;
+    }
+
+    static Program compile(BinaryTree tree) { // Compile the tree in post-order, so operands come before their
+                                              // operator exactly like Output.evaluate visits them.
+        long start = Metrics.start();
+        ArrayList<BinaryTree> nodes = new ArrayList<BinaryTree>(); // Root, right, left order, which is the
+                                                                   // post-order reversed.
+        ArrayDeque<BinaryTree> pending = new ArrayDeque<BinaryTree>();
+        pending.push(tree);
+        int leaves = 0;
+        while (!pending.isEmpty()) {
+            BinaryTree node = pending.pop();
+            nodes.add(node);
+            if (node.isLeaf()) {
+                leaves++;
+            } else {
+                pending.push(node.getLeft());
+                pending.push(node.getRight());
+            }
+        }
+
+        byte[] code = new byte[nodes.size()];
+        double[] constants = new double[leaves];
+        int[] slots = new int[leaves];
+        HashMap<String, Integer> variables = new HashMap<String, Integer>();
+        int pc = 0;
+        int constant = 0;
+        int load = 0;
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            BinaryTree node = nodes.get(i);
+            if (node.isLeaf() && node.getRoot().isType(Type.IDENTIFIER)) {
+                code[pc++] = LOAD;
+                Integer slot = variables.putIfAbsent(node.getRoot().toString(), variables.size());
+                slots[load++] = slot == null ? variables.size() - 1 : slot;
+                maxDepth = Math.max(maxDepth, ++depth);
+            } else if (node.isLeaf()) {
+                code[pc++] = PUSH;
+                constants[constant++] = node.getRoot().toDouble();
+                maxDepth = Math.max(maxDepth, ++depth);
+            } else {
+                code[pc++] = opcode(node.getRoot().getType());
+                depth--;
+            }
+        }
+        String[] names = new String[variables.size()];
+        for (Map.Entry<String, Integer> variable : variables.entrySet()) {
+            names[variable.getValue()] = variable.getKey();
+        }
+        if (Metrics.enabled) {
+            Metrics.measured(Metrics.Stage.COMPILE, start, code.length);
+        }
+        return new Program(code, Arrays.copyOf(constants, constant), Arrays.copyOf(slots, load), names, maxDepth);
+    }
+
+    private static byte opcode(Type type) { // Evaluate the instruction for an operator token.
+        switch (type) {
+            case PLUS:
+                return ADD;
+            case MINUS:
+                return SUBTRACT;
+            case MULTIPLY:
+                return MULTIPLY;
+            case DIVIDE:
+                return DIVIDE;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    public int size() { // Number of instructions.
+        return code.length;
+    }
+
+    public double[] newStack() { // An operand stack large enough for this program, which can be reused between
+                                 // evaluations.
+        return new double[maxDepth];
+    }
+
+    public String[] getVariables() { // Names of the variables, in the order their values are bound.
+        return variables.clone();
+    }
+
+    public double evaluate() {
+        return evaluate(newStack());
+    }
+
+    public double evaluate(double[] stack) { // Run a program without variables on the given operand stack.
+        return evaluate(stack, noBindings);
+    }
+
+    public double evaluate(double[] stack, double[] bindings) { // Run the program with one value for every
+                                                                // variable, in the order of getVariables().
+        checkBindings(bindings.length);
+        long start = Metrics.start();
+        byte[] code = this.code;
+        double[] constants = this.constants;
+        int[] slots = this.slots;
+        int sp = 0;
+        int constant = 0;
+        int load = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case PUSH:
+                    stack[sp++] = constants[constant++];
+                    break;
+                case LOAD:
+                    stack[sp++] = bindings[slots[load++]];
+                    break;
+                case ADD:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + stack[sp];
+                    break;
+                case SUBTRACT:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] - stack[sp];
+                    break;
+                case MULTIPLY:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] * stack[sp];
+                    break;
+                case DIVIDE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] / stack[sp];
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        if (Metrics.enabled) {
+            Metrics.measured(Metrics.Stage.EVALUATE, start, code.length);
+        }
+        return stack[0];
+    }
+
+    public double[] evaluate(double[][] columns, int rows) { // Evaluate the given number of rows of the columns, one
+                                                             // column per variable in the order of getVariables().
+                                                             // A program without variables has no columns to count
+                                                             // the rows of.
+        double[] results = new double[rows];
+        evaluate(columns, results);
+        return results;
+    }
+
+    public void evaluate(double[][] columns, double[] results) { // Evaluate a row for every element of results.
+        // Rows are processed in blocks, and every instruction runs over a whole block at once, so the interpreter
+        // overhead is paid once per block and each operator is a plain loop over primitive arrays that the JIT can
+        // unroll and vectorize.
+        checkBindings(columns.length);
+        long start = Metrics.start();
+        int rows = results.length;
+        for (double[] column : columns) {
+            if (column.length < rows) {
+                throw new IllegalArgumentException("Column has " + column.length + " rows, expected " + rows);
+            }
+        }
+        double[][] stack = new double[maxDepth][Math.min(blockRows, rows)];
+        for (int from = 0; from < rows; from += blockRows) {
+            int count = Math.min(blockRows, rows - from);
+            int sp = 0;
+            int constant = 0;
+            int load = 0;
+            for (int pc = 0; pc < code.length; pc++) {
+                switch (code[pc]) {
+                    case PUSH:
+                        Arrays.fill(stack[sp++], 0, count, constants[constant++]);
+                        break;
+                    case LOAD:
+                        System.arraycopy(columns[slots[load++]], from, stack[sp++], 0, count);
+                        break;
+                    case ADD:
+                        add(stack[sp - 2], stack[--sp], count);
+                        break;
+                    case SUBTRACT:
+                        subtract(stack[sp - 2], stack[--sp], count);
+                        break;
+                    case MULTIPLY:
+                        multiply(stack[sp - 2], stack[--sp], count);
+                        break;
+                    case DIVIDE:
+                        divide(stack[sp - 2], stack[--sp], count);
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                }
+            }
+            System.arraycopy(stack[0], 0, results, from, count);
+        }
+        if (Metrics.enabled) {
+            Metrics.measured(Metrics.Stage.EVALUATE, start, code.length);
+        }
+    }
+
+    private static void add(double[] left, double[] right, int count) {
+        for (int i = 0; i < count; i++) {
+            left[i] += right[i];
+        }
+    }
+
+    private static void subtract(double[] left, double[] right, int count) {
+        for (int i = 0; i < count; i++) {
+            left[i] -= right[i];
+        }
+    }
+
+    private static void multiply(double[] left, double[] right, int count) {
+        for (int i = 0; i < count; i++) {
+            left[i] *= right[i];
+        }
+    }
+
+    private static void divide(double[] left, double[] right, int count) {
+        for (int i = 0; i < count; i++) {
+            left[i] /= right[i];
+        }
+    }
+
+    private void checkBindings(int count) {
+        if (count != variables.length) {
+            throw new IllegalArgumentException("Expected values for " + Arrays.toString(variables) + ", got "
+                    + count);
+        }
+    }
+}
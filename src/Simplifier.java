@@ -0,0 +1,124 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class Simplifier { // Rewrites an expression tree into an equivalent smaller one before it is evaluated or compiled.
+                   // Subtrees without variables are folded into a single literal, and operations with a neutral
+                   // operand are replaced by the other operand where that gives the same double for every value,
+                   // including NaN, infinities and signed zero:
+                   //   x * 1 = 1 * x = x / 1 = x - 0 = x + -0 = -0 + x = x
+                   // Identities that do not hold for every double, like x + 0 (-0 + 0 is +0), 0 * x (NaN, infinities
+                   // and the sign of zero) or x - x, are left alone. Leaves that are not literals or identifiers are
+                   // kept as they are, so invalid trees fail the same way when they are evaluated. The input tree is
+                   // not modified.
+    private long visited = 0;
+    private long removed = 0;
+
+    public BinaryTree simplify(BinaryTree tree) {
+        ArrayList<BinaryTree> nodes = new ArrayList<BinaryTree>(); // Root, right, left order, which is the post-order
+                                                                   // reversed.
+        ArrayDeque<BinaryTree> pending = new ArrayDeque<BinaryTree>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            BinaryTree node = pending.pop();
+            nodes.add(node);
+            if (!node.isLeaf()) {
+                pending.push(node.getLeft());
+                pending.push(node.getRight());
+            }
+        }
+
+        BinaryTree[] results = new BinaryTree[16]; // Simplified operands, like the operand stack of a Program.
+        int[] sizes = new int[16]; // Number of nodes of each simplified operand.
+        int count = 0;
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            BinaryTree node = nodes.get(i);
+            BinaryTree result;
+            int size;
+            if (node.isLeaf()) {
+                result = new BinaryTree(node.getRoot());
+                size = 1;
+            } else {
+                BinaryTree right = results[--count];
+                BinaryTree left = results[--count];
+                result = simplify(node.getRoot(), left, right);
+                size = result == left ? sizes[count] : result == right ? sizes[count + 1]
+                        : result.isLeaf() ? 1 : sizes[count] + sizes[count + 1] + 1;
+            }
+            if (count == results.length) {
+                results = Arrays.copyOf(results, count * 2);
+                sizes = Arrays.copyOf(sizes, count * 2);
+            }
+            results[count] = result;
+            sizes[count++] = size;
+        }
+        visited += nodes.size();
+        removed += nodes.size() - sizes[0];
+        return results[0];
+    }
+
+    private static BinaryTree simplify(Token operator, BinaryTree left, BinaryTree right) { // One operation whose
+                                                                                           // operands are already
+                                                                                           // simplified.
+        boolean leftConstant = isConstant(left);
+        boolean rightConstant = isConstant(right);
+        if (leftConstant && rightConstant) {
+            double value = Output.apply(operator.getType(), left.getRoot().toDouble(), right.getRoot().toDouble());
+            return new BinaryTree(new Token(Double.toString(value), value));
+        }
+        double l = leftConstant ? left.getRoot().toDouble() : Double.NaN;
+        double r = rightConstant ? right.getRoot().toDouble() : Double.NaN;
+        switch (operator.getType()) {
+            case MULTIPLY:
+                if (r == 1.0) {
+                    return left;
+                }
+                if (l == 1.0) {
+                    return right;
+                }
+                break;
+            case DIVIDE:
+                if (r == 1.0) {
+                    return left;
+                }
+                break;
+            case MINUS:
+                if (isPositiveZero(r)) {
+                    return left;
+                }
+                break;
+            case PLUS:
+                if (isNegativeZero(r)) {
+                    return left;
+                }
+                if (isNegativeZero(l)) {
+                    return right;
+                }
+                break;
+            default:
+                break;
+        }
+        return new BinaryTree(operator, left, right);
+    }
+
+    private static boolean isConstant(BinaryTree tree) { // Only decoded literals are constant, so identifiers and
+                                                         // invalid leaves are never folded away.
+        return tree.isLeaf() && tree.getRoot().isNumeric();
+    }
+
+    private static boolean isPositiveZero(double value) {
+        return Double.doubleToRawLongBits(value) == 0L;
+    }
+
+    private static boolean isNegativeZero(double value) {
+        return Double.doubleToRawLongBits(value) == Long.MIN_VALUE;
+    }
+
+    public long getVisitedNodes() { // Nodes of all trees before simplifying.
+        return visited;
+    }
+
+    public long getRemovedNodes() { // Nodes removed from all trees by simplifying.
+        return removed;
+    }
+}
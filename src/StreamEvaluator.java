@@ -0,0 +1,181 @@
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class StreamEvaluator { // Non-interactive mode that evaluates newline-delimited expressions from a file or stdin and
+                        // writes one result per line. Lines are parsed straight from the byte buffers, and memory
+                        // stays bounded by the window and buffer sizes no matter how large the input is.
+    static final int maxLineLength = 1 << 20;
+    private static final long mapWindow = 64L << 20; // Bytes of the file mapped at a time.
+    private static final int outputCapacity = 1 << 16;
+
+    private final LineEvaluator evaluator = new LineEvaluator();
+    private final ByteBuffer output = ByteBuffer.allocateDirect(outputCapacity);
+    private final WritableByteChannel out;
+
+    public StreamEvaluator(WritableByteChannel out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException { // Usage: --file <path> | --stdin
+        WritableByteChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+        StreamEvaluator evaluator = new StreamEvaluator(stdout);
+        if (args.length == 2 && args[0].equals("--file")) {
+            evaluator.evaluateFile(Path.of(args[1]));
+        } else if (args.length == 1 && args[0].equals("--stdin")) {
+            evaluator.evaluateStream(new FileInputStream(FileDescriptor.in).getChannel());
+        } else {
+            throw new IllegalArgumentException("Usage: --file <path> | --stdin");
+        }
+    }
+
+    public void evaluateFile(Path path) throws IOException { // Map the file one window at a time. A line that runs
+                                                              // past the end of a window is read again from the
+                                                              // start of the next one.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(mapWindow, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int consumed = evaluateLines(buffer, 0, (int) length, last);
+                if (consumed == 0) {
+                    throw new IOException("Line at byte " + position + " is longer than " + mapWindow + " bytes");
+                }
+                position += consumed;
+            }
+        }
+        flush();
+    }
+
+    public void evaluateStream(ReadableByteChannel channel) throws IOException { // Read the channel through one
+                                                                                  // fixed buffer, keeping an
+                                                                                  // incomplete last line for the next
+                                                                                  // read.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(maxLineLength);
+        boolean last = false;
+        while (!last) {
+            last = channel.read(buffer) < 0;
+            int consumed = evaluateLines(buffer, 0, buffer.position(), last);
+            if (consumed == 0 && !buffer.hasRemaining()) {
+                throw new IOException("Line is longer than " + maxLineLength + " bytes");
+            }
+            flush(); // Results are written as soon as they are ready when reading from a pipe.
+            buffer.flip();
+            buffer.position(consumed);
+            buffer.compact();
+        }
+        flush();
+    }
+
+    private int evaluateLines(ByteBuffer buffer, int start, int end, boolean last) throws IOException { // Evaluate
+        // every complete line between start and end, and the trailing line too if this is the end of the input.
+        // Returns the number of bytes consumed.
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                evaluateLine(buffer, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        if (last && lineStart < end) {
+            evaluateLine(buffer, lineStart, end);
+            lineStart = end;
+        }
+        return lineStart - start;
+    }
+
+    private void evaluateLine(ByteBuffer buffer, int start, int end) throws IOException {
+        if (output.remaining() < LineEvaluator.maxResultLength) {
+            flush();
+        }
+        evaluator.evaluate(buffer, start, end, output);
+    }
+
+    private void flush() throws IOException { // Write the buffered results to the output channel.
+        output.flip();
+        while (output.hasRemaining()) {
+            out.write(output);
+        }
+        output.clear();
+    }
+}
+
+class LineEvaluator { // Parses and evaluates one line of bytes and writes the result as ASCII. The lexer, parser,
+                      // and buffers are reused for every line, so a line is never turned into a String.
+    static final int maxResultLength = 512; // Upper bound for one line of output, including error messages.
+
+    private final ByteSequence line = new ByteSequence();
+    private final Lexer lexer = new Lexer(line);
+    private final BackusNaurForm parser = new BackusNaurForm(lexer);
+    private final ParseResult parsed = new ParseResult();
+    private final StringBuilder result = new StringBuilder(maxResultLength);
+
+    LineEvaluator() {
+        lexer.setKeepText(false); // Trees are only evaluated, so numbers are decoded from the bytes without a String.
+    }
+
+    public void evaluate(ByteBuffer buffer, int start, int end, ByteBuffer out) { // Write the result of the line
+                                                                                  // between start and end followed by
+                                                                                  // a newline.
+        result.setLength(0);
+        line.wrap(buffer, start, end);
+        lexer.reset(line);
+        if (parser.parse(parsed) && parsed.requireConstant()) {
+            result.append(Output.evaluate(parsed.getTree()));
+        } else { // Malformed lines and lines with variables are reported with the kind and offset of the error,
+                 // without an exception.
+            result.append("ERROR ").append(parsed.getError()).append(" at ").append(parsed.getOffset());
+        }
+        result.append('\n');
+        for (int i = 0; i < result.length(); i++) {
+            out.put((byte) result.charAt(i));
+        }
+    }
+}
+
+class ByteSequence implements CharSequence { // Reusable view of a range of a byte buffer as single byte characters.
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+
+    public ByteSequence wrap(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = end - start;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) { // Decode only the requested range, so reading a token costs
+                                                        // its own length and not that of the line.
+        byte[] bytes = new byte[to - from];
+        buffer.get(start + from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
@@ -0,0 +1,246 @@
+import java.util.Arrays;
+
+class TreeArena { // Compact storage for expression trees. Nodes live in parallel primitive arrays indexed by node id
+                  // instead of a BinaryTree and, for every literal, a Token and a String. That is 25 bytes per node
+                  // instead of over 100 for a literal, and leaves nothing for the garbage collector to trace. Nodes are
+                  // created after their children, so ids are in post-order and evaluating is one forward pass over
+                  // the arrays. The arena is reused by clearing it, and its arrays only grow.
+    private static final Type[] types = Type.values();
+
+    private CharSequence text; // The parsed text, which token offsets refer to.
+    private final Lexer lexer = new Lexer("");
+    private byte[] type = new byte[16]; // Ordinal of the Type of each node.
+    private int[] lefts = new int[16]; // Id of the left child, or -1 for a leaf.
+    private int[] rights = new int[16];
+    private double[] values = new double[16]; // Value of number leaves, and of every other node once evaluated.
+    private int[] starts = new int[16]; // Offset of the token of each node in the text.
+    private int[] ends = new int[16];
+    private int size = 0;
+    private int root = -1;
+    private int[] heights; // Computed on demand for the adapter.
+    private int[] parents;
+    private Token[] tokens = new Token[0]; // Token of each node, created the first time the adapter asks for it.
+
+    private final BackusNaurForm parser = new BackusNaurForm(lexer);
+    private final Nodes nodes = new Nodes();
+
+    public int parse(CharSequence text) { // Parse the text into the arena, replacing what it held before, and return
+                                          // the id of the root. The chain loop of BackusNaurForm.parse() hands its
+                                          // nodes to the arena instead of building BinaryTrees, so the tree is
+                                          // identical, including how leniently malformed input is read.
+        clear();
+        this.text = text;
+        lexer.reset(text);
+        root = parser.parse(nodes, null, false);
+        return root;
+    }
+
+    private int newNode(Type t, int start, int end) {
+        if (size == type.length) {
+            int capacity = size * 2;
+            type = Arrays.copyOf(type, capacity);
+            lefts = Arrays.copyOf(lefts, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+            values = Arrays.copyOf(values, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        type[size] = (byte) t.ordinal();
+        lefts[size] = -1;
+        rights[size] = -1;
+        starts[size] = start;
+        ends[size] = end;
+        return size++;
+    }
+
+    public void clear() { // Forget the tree but keep the arrays for the next one.
+        Arrays.fill(tokens, 0, Math.min(size, tokens.length), null);
+        size = 0;
+        root = -1;
+        heights = null;
+        parents = null;
+    }
+
+    public double evaluate() { // Evaluate the tree in one pass over the nodes in id order.
+        byte number = (byte) Type.NUMBER.ordinal();
+        for (int node = 0; node < size; node++) {
+            int left = lefts[node];
+            if (left >= 0) {
+                values[node] = Output.apply(types[type[node]], values[left], values[rights[node]]);
+            } else if (type[node] != number) { // An identifier, or whatever the lenient parser took as a literal.
+                throw new NumberFormatException("Not a number: " + text.subSequence(starts[node], ends[node]));
+            }
+        }
+        return values[root];
+    }
+
+    public int size() { // Number of nodes.
+        return size;
+    }
+
+    public int getRoot() { // Id of the root, or -1 if the arena is empty.
+        return root;
+    }
+
+    public Type getType(int node) {
+        return types[type[node]];
+    }
+
+    public int getLeft(int node) { // Id of the left child, or -1 for a leaf.
+        return lefts[node];
+    }
+
+    public int getRight(int node) {
+        return rights[node];
+    }
+
+    public Token getToken(int node) { // The token with the text and value of a node. It is only created once, so
+                                      // every view of the node shares it until the arena is cleared.
+        if (tokens.length < size) {
+            tokens = Arrays.copyOf(tokens, Math.max(size, 2 * tokens.length));
+        }
+        Token token = tokens[node];
+        if (token == null) {
+            String value = text.subSequence(starts[node], ends[node]).toString();
+            token = type[node] == Type.NUMBER.ordinal() ? new Token(value, values[node])
+                    : new Token(value, getType(node));
+            tokens[node] = token;
+        }
+        return token;
+    }
+
+    public int getParent(int node) { // Id of the parent, or -1 for the root. Like heights, parents are computed for
+                                     // every node the first time one is needed.
+        if (parents == null) {
+            parents = new int[size];
+            Arrays.fill(parents, -1);
+            for (int i = 0; i < size; i++) {
+                if (lefts[i] >= 0) {
+                    parents[lefts[i]] = i;
+                    parents[rights[i]] = i;
+                }
+            }
+        }
+        return parents[node];
+    }
+
+    public int getHeight(int node) { // Heights are computed for every node the first time one is needed.
+        if (heights == null) {
+            heights = new int[size];
+            for (int i = 0; i < size; i++) {
+                heights[i] = lefts[i] < 0 ? 1 : 1 + Math.max(heights[lefts[i]], heights[rights[i]]);
+            }
+        }
+        return heights[node];
+    }
+
+    public BinaryTree toBinaryTree() { // View of the tree as a BinaryTree for the printers and evaluators.
+        return new ArenaTree(this, root);
+    }
+
+    private class Nodes implements TreeBuilder { // Nodes the parser asks for, added to the arena. Handles are ids.
+        @Override
+        public int leaf(Lexer lexer) {
+            Type t = lexer.type();
+            int node = newNode(t, lexer.offset(), lexer.end());
+            values[node] = t == Type.NUMBER ? lexer.number() : 0;
+            return node;
+        }
+
+        @Override
+        public int node(Token operator, int offset, int left, int right) {
+            int node = newNode(operator.getType(), offset, offset + 1);
+            lefts[node] = left;
+            rights[node] = right;
+            return node;
+        }
+
+        @Override
+        public int height(int node) {
+            return getHeight(node);
+        }
+    }
+}
+
+class ArenaTree extends BinaryTree { // Read-only BinaryTree view of one node of a TreeArena. Children, parents and
+                                     // tokens are created when they are asked for, so the view costs nothing until it
+                                     // is used. The view is only valid until the arena is reused.
+    private final TreeArena arena;
+    private final int node;
+
+    ArenaTree(TreeArena arena, int node) {
+        super(null);
+        this.arena = arena;
+        this.node = node;
+    }
+
+    @Override
+    public Token getRoot() {
+        return arena.getToken(node);
+    }
+
+    @Override
+    public BinaryTree getParent() {
+        int parent = arena.getParent(node);
+        return parent < 0 ? null : new ArenaTree(arena, parent);
+    }
+
+    @Override
+    public Boolean isRoot() {
+        return node == arena.getRoot();
+    }
+
+    @Override
+    public boolean isLeft() {
+        int parent = arena.getParent(node);
+        return parent >= 0 && arena.getLeft(parent) == node;
+    }
+
+    @Override
+    public boolean isRight() {
+        int parent = arena.getParent(node);
+        return parent >= 0 && arena.getRight(parent) == node;
+    }
+
+    @Override
+    public BinaryTree getLeft() {
+        int left = arena.getLeft(node);
+        return left < 0 ? null : new ArenaTree(arena, left);
+    }
+
+    @Override
+    public BinaryTree getRight() {
+        int right = arena.getRight(node);
+        return right < 0 ? null : new ArenaTree(arena, right);
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return arena.getLeft(node) < 0;
+    }
+
+    @Override
+    public int getHeight() {
+        return arena.getHeight(node);
+    }
+
+    @Override
+    public int height() {
+        return arena.getHeight(node);
+    }
+
+    @Override
+    public void setParent(BinaryTree tree) { // The parent of a view is the one in the arena. Linking the view under a
+                                             // BinaryTree only changes that tree, so there is nothing to record here.
+    }
+
+    @Override
+    public void setLeft(BinaryTree tree) {
+        throw new UnsupportedOperationException("Arena trees are read-only");
+    }
+
+    @Override
+    public void setRight(BinaryTree tree) {
+        throw new UnsupportedOperationException("Arena trees are read-only");
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+class TreeFile { // Binary file of parsed expression trees, written once and memory-mapped when a library of
+                 // expressions is needed again, so nothing is lexed or parsed at startup. Trees are evaluated straight
+                 // from the mapped bytes, and BinaryTree objects are only built for the trees that ask for them.
+                 //
+                 // All numbers are little-endian. The header is the magic "BNFT", the format version (short), flags
+                 // (short, zero), the number of trees (int), the length of the rest of the file (int) and the CRC32
+                 // (int) of the whole file but the CRC32 itself. An index of one int per tree with the offset of the
+                 // tree after the index follows. Each tree is its nodes in preorder, one tag byte per node: the high
+                 // four bits are the kind of node and the low four bits the type of its token. Operators have no other
+                 // data. A numeric literal whose text is the plain integer of its value is followed by the value as a
+                 // variable-length unsigned integer, and any other one by its value as a double and its text. Other
+                 // leaves are followed by their text. Texts are UTF-8 with their length in front as a variable-length
+                 // unsigned integer, which is seven bits per byte, least significant first, with the high bit set on
+                 // every byte but the last.
+    static final int magic = 0x544E4642; // "BNFT" read as a little-endian int.
+    static final short version = 1;
+    static final int headerLength = 20;
+
+    private static final int operatorKind = 0x00;
+    private static final int numberKind = 0x10; // Value and text.
+    private static final int integerKind = 0x20; // Value only, as an unsigned integer.
+    private static final int textKind = 0x30;
+    private static final Type[] types = { Type.NUMBER, Type.IDENTIFIER, Type.MULTIPLY, Type.DIVIDE, Type.PLUS,
+            Type.MINUS, Type.OPEN, Type.CLOSE, Type.UNKNOWN, Type.END }; // Token type of each code of version 1, so
+                                                                        // reordering Type does not change the format.
+    private static final String[] symbols = { null, null, "*", "/", "+", "-" }; // Text of the operators by code.
+
+    private final ByteBuffer buffer; // Everything after the header.
+    private final int count;
+    private final int payload; // Offset of the first tree in the buffer.
+
+    private TreeFile(ByteBuffer buffer, int count) {
+        this.buffer = buffer;
+        this.count = count;
+        this.payload = 4 * count;
+    }
+
+    static void write(Path path, List<BinaryTree> trees) throws IOException { // Write the trees to a new file, or
+                                                                              // replace the one that is there.
+        Encoder encoder = new Encoder(headerLength + 4 * trees.size());
+        ArrayDeque<BinaryTree> pending = new ArrayDeque<BinaryTree>();
+        for (int i = 0; i < trees.size(); i++) {
+            encoder.buffer.putInt(headerLength + 4 * i, encoder.buffer.position() - headerLength - 4 * trees.size());
+            pending.push(trees.get(i));
+            while (!pending.isEmpty()) {
+                BinaryTree node = pending.pop();
+                Token token = node.getRoot();
+                int code = code(token.getType());
+                if (!node.isLeaf()) {
+                    if (code >= symbols.length || symbols[code] == null) {
+                        throw new IllegalArgumentException("Not an operator: " + token);
+                    }
+                    encoder.ensure(1).put((byte) (operatorKind | code));
+                    pending.push(node.getRight());
+                    pending.push(node.getLeft());
+                } else if (token.isNumeric()) {
+                    double value = token.toDouble();
+                    if (value >= 0 && value < 0x1p53 && token.toString().equals(Long.toString((long) value))) {
+                        encoder.ensure(1).put((byte) (integerKind | code));
+                        encoder.putUnsigned((long) value);
+                    } else {
+                        encoder.ensure(9).put((byte) (numberKind | code)).putDouble(value);
+                        encoder.putText(token.toString());
+                    }
+                } else {
+                    encoder.ensure(1).put((byte) (textKind | code));
+                    encoder.putText(token.toString());
+                }
+            }
+        }
+
+        ByteBuffer bytes = encoder.buffer;
+        int end = bytes.position();
+        bytes.putInt(0, magic).putShort(4, version).putShort(6, (short) 0).putInt(8, trees.size())
+                .putInt(12, end - headerLength);
+        bytes.putInt(16, checksum(bytes.duplicate().position(0).limit(end)));
+        bytes.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    static TreeFile load(Path path) throws IOException { // Map the file and check its header and checksum. The trees
+                                                          // stay valid after the channel is closed.
+        ByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < headerLength || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a tree file: " + path);
+            }
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (file.getInt(0) != magic) {
+            throw new IOException("Not a tree file: " + path);
+        }
+        if (file.getShort(4) != version) {
+            throw new IOException("Unsupported tree file version " + file.getShort(4) + " in " + path);
+        }
+        if (file.getShort(6) != 0) {
+            throw new IOException("Unsupported tree file flags " + file.getShort(6) + " in " + path);
+        }
+        int count = file.getInt(8);
+        int length = file.getInt(12);
+        if (length != file.capacity() - headerLength || count < 0 || count > length / 4) {
+            throw new IOException("Truncated tree file: " + path);
+        }
+        if (checksum(file.duplicate()) != file.getInt(16)) {
+            throw new IOException("Checksum mismatch in " + path);
+        }
+        return new TreeFile(file.slice(headerLength, length).order(ByteOrder.LITTLE_ENDIAN), count);
+    }
+
+    private static int checksum(ByteBuffer file) { // CRC32 of the header up to the checksum and everything after it.
+        CRC32 crc = new CRC32();
+        crc.update(file.duplicate().limit(16));
+        crc.update(file.position(headerLength));
+        return (int) crc.getValue();
+    }
+
+    public int size() { // Number of trees.
+        return count;
+    }
+
+    public double evaluate(int index) { // Evaluate a tree from its bytes in one pass. Operators wait on a stack for
+                                        // their operands, and each value is combined with the left operands that are
+                                        // waiting for it. Leaves that are not numbers fail the same way
+                                        // Token.toDouble() does.
+        int position = payload + buffer.getInt(4 * index);
+        byte[] operators = new byte[16];
+        double[] lefts = new double[16];
+        boolean[] hasLeft = new boolean[16];
+        int depth = 0;
+        while (true) {
+            int tag = buffer.get(position++);
+            int kind = tag & 0xF0;
+            if (kind == operatorKind) {
+                if (depth == operators.length) {
+                    operators = Arrays.copyOf(operators, depth * 2);
+                    lefts = Arrays.copyOf(lefts, depth * 2);
+                    hasLeft = Arrays.copyOf(hasLeft, depth * 2);
+                }
+                operators[depth] = (byte) tag;
+                hasLeft[depth++] = false;
+                continue;
+            }
+            double value;
+            if (kind == integerKind) {
+                value = unsigned(position);
+                position = skip(position);
+            } else if (kind == numberKind) {
+                value = buffer.getDouble(position);
+                position += 8;
+                position = skip(position) + (int) unsigned(position);
+            } else {
+                throw new NumberFormatException("Not a number: " + text(skip(position), (int) unsigned(position)));
+            }
+            while (depth > 0 && hasLeft[depth - 1]) {
+                depth--;
+                value = Output.apply(types[operators[depth] & 0x0F], lefts[depth], value);
+            }
+            if (depth == 0) {
+                return value;
+            }
+            lefts[depth - 1] = value;
+            hasLeft[depth - 1] = true;
+        }
+    }
+
+    public BinaryTree getTree(int index) { // Build the BinaryTree of a tree, walking it the same way as evaluate().
+        int position = payload + buffer.getInt(4 * index);
+        Token[] operators = new Token[16];
+        BinaryTree[] lefts = new BinaryTree[16]; // Left subtree of each waiting operator, once it is complete.
+        int depth = 0;
+        while (true) {
+            int tag = buffer.get(position++);
+            int kind = tag & 0xF0;
+            Type type = types[tag & 0x0F];
+            if (kind == operatorKind) {
+                if (depth == operators.length) {
+                    operators = Arrays.copyOf(operators, depth * 2);
+                    lefts = Arrays.copyOf(lefts, depth * 2);
+                }
+                operators[depth] = new Token(symbols[tag & 0x0F], type);
+                lefts[depth++] = null;
+                continue;
+            }
+            Token token;
+            if (kind == integerKind) {
+                long value = unsigned(position);
+                position = skip(position);
+                token = new Token(Long.toString(value), value);
+            } else {
+                double value = 0;
+                if (kind == numberKind) {
+                    value = buffer.getDouble(position);
+                    position += 8;
+                }
+                int length = (int) unsigned(position);
+                position = skip(position);
+                String text = text(position, length);
+                position += length;
+                token = kind == numberKind ? new Token(text, value) : new Token(text, type);
+            }
+            BinaryTree tree = new BinaryTree(token);
+            while (depth > 0 && lefts[depth - 1] != null) {
+                depth--;
+                tree = new BinaryTree(operators[depth], lefts[depth], tree);
+                lefts[depth] = null;
+            }
+            if (depth == 0) {
+                return tree;
+            }
+            lefts[depth - 1] = tree;
+        }
+    }
+
+    private long unsigned(int position) { // Read a variable-length unsigned integer.
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = buffer.get(position++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private int skip(int position) { // Offset just past a variable-length unsigned integer.
+        while (buffer.get(position) < 0) {
+            position++;
+        }
+        return position + 1;
+    }
+
+    private String text(int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int code(Type type) {
+        for (int code = 0; code < types.length; code++) {
+            if (types[code] == type) {
+                return code;
+            }
+        }
+        throw new IllegalArgumentException("No code for " + type);
+    }
+
+    private static class Encoder { // Growing little-endian buffer that the file is written into.
+        ByteBuffer buffer;
+
+        Encoder(int start) { // Start writing after the header and index, which are filled in at the end.
+            buffer = ByteBuffer.allocate(Math.max(start * 2, 1 << 12)).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(start);
+        }
+
+        ByteBuffer ensure(int bytes) { // Make room for the given number of bytes.
+            if (buffer.remaining() < bytes) {
+                long capacity = Math.max(2L * buffer.capacity(), (long) buffer.position() + bytes);
+                if (capacity > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Trees do not fit in one tree file");
+                }
+                ByteBuffer larger = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            return buffer;
+        }
+
+        void putUnsigned(long value) {
+            ensure(10);
+            while (value >= 0x80) {
+                buffer.put((byte) (value | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putText(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            putUnsigned(bytes.length);
+            ensure(bytes.length).put(bytes);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class BatchEvaluatorTest { // Batch results must match evaluating every expression on its own, with and without a
+                           // cache, and failed items must be recorded without stopping the batch.
+    @Test
+    void resultsMatchSingleEvaluation() {
+        List<String> expressions = Workloads.corpus(10_000, 6);
+        expressions.add("1+");
+        BatchResult batch;
+        try (BatchEvaluator evaluator = new BatchEvaluator(4)) {
+            batch = evaluator.evaluate(expressions);
+        }
+        for (int i = 0; i < expressions.size() - 1; i++) {
+            assertEquals(Output.evaluate(Expressions.parse(expressions.get(i))), batch.getValue(i),
+                    expressions.get(i));
+        }
+        assertEquals(1, batch.getErrorCount());
+        assertEquals("UNEXPECTED_END at 2", batch.getError(expressions.size() - 1));
+    }
+
+    @Test
+    void streamsMatchLists() { // A lazy stream longer than the chunks it is evaluated in.
+        List<String> expressions = Workloads.corpus(1_000, 4);
+        expressions.add("{1");
+        List<String> repeated = new ArrayList<String>();
+        for (int i = 0; i < 150_001; i++) {
+            repeated.add(expressions.get(i % expressions.size()));
+        }
+        BatchResult streamed;
+        BatchResult listed;
+        try (BatchEvaluator evaluator = new BatchEvaluator(4)) {
+            streamed = evaluator.evaluate(IntStream.range(0, 150_001).mapToObj(
+                    i -> expressions.get(i % expressions.size())));
+            listed = evaluator.evaluate(repeated);
+        }
+        assertEquals(repeated.size(), streamed.size());
+        assertArrayEquals(listed.getValues(), streamed.getValues());
+        assertEquals(listed.getErrorCount(), streamed.getErrorCount());
+        assertEquals("UNCLOSED_BRACKET at 2", streamed.getError(expressions.size() - 1));
+        try (BatchEvaluator evaluator = new BatchEvaluator(1)) {
+            assertEquals(0, evaluator.evaluate(IntStream.range(0, 0).mapToObj(Integer::toString)).size());
+        }
+    }
+
+    @Test
+    void cachedResultsMatch() { // Every expression is sent twice, the second time spaced differently, through a
+                                // cache too small to hold them all.
+        List<String> expressions = Workloads.corpus(200, 6);
+        List<String> repeated = new ArrayList<String>(expressions);
+        for (String expression : expressions) {
+            repeated.add(" " + expression.replace("+", " + "));
+        }
+        ExpressionCache cache = new ExpressionCache(64, 4);
+        BatchResult cached;
+        try (BatchEvaluator evaluator = new BatchEvaluator(4, cache)) {
+            cached = evaluator.evaluate(repeated);
+        }
+        for (int i = 0; i < repeated.size(); i++) {
+            assertEquals(Output.evaluate(Expressions.parse(repeated.get(i))), cached.getValue(i), repeated.get(i));
+        }
+        assertEquals(repeated.size(), cache.getHits() + cache.getMisses());
+        assertTrue(cache.size() <= 64 && cache.getEvictions() > 0, "cache was not bounded");
+    }
+
+    @Test
+    void unboundVariablesAreErrors() { // With a cache the offset still refers to the text that was sent.
+        for (ExpressionCache cache : new ExpressionCache[] { null, new ExpressionCache(16, 1) }) {
+            BatchResult result;
+            try (BatchEvaluator evaluator = new BatchEvaluator(1, cache)) {
+                result = evaluator.evaluate(List.of("x+1", "1 + {2*NaN}"));
+            }
+            assertEquals("UNBOUND_VARIABLE at 0", result.getError(0));
+            assertEquals("UNBOUND_VARIABLE at 7", result.getError(1));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class EvaluationServerTest {
+    @Test
+    void pipelinedResultsMatchStreamEvaluator() throws Exception { // Send every expression over one connection
+        // without waiting for results, more than the server buffers, and compare the results with the stream
+        // evaluator.
+        List<String> expressions = Workloads.corpus(10_000, 6);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            for (String expression : expressions) {
+                text.append(expression).append('\n');
+            }
+        }
+        text.append("{1+2}*x\n\n1+2"); // Errors, an empty line and a last line without a newline.
+        byte[] request = text.toString().getBytes(StandardCharsets.US_ASCII);
+        assertTrue(request.length > 1 << 18, "request fits the server's buffers");
+        byte[] expected = StreamEvaluatorTest.evaluate(text.toString()).getBytes(StandardCharsets.US_ASCII);
+
+        EvaluationServer server = new EvaluationServer(EvaluationServer.address("0"));
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        serverThread.start();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (SocketChannel channel = SocketChannel.open(server.getAddress())) {
+            Thread writer = new Thread(() -> {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(request);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.shutdownOutput();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.start();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+            while (channel.read(buffer.clear()) >= 0) {
+                actual.write(buffer.array(), 0, buffer.position());
+            }
+            writer.join();
+        } finally {
+            server.close();
+            serverThread.join();
+        }
+        assertArrayEquals(expected, actual.toByteArray(), "server results differ from the stream evaluator");
+    }
+}
@@ -0,0 +1,26 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class ExpressionCacheTest {
+    @Test
+    void capacityIsExact() { // 16 segments do not divide 100 evenly.
+        ExpressionCache cache = new ExpressionCache(100, 16);
+        CachedExpression one = new CachedExpression(Expressions.parse("1"));
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(Integer.toString(i), one);
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    void keysIgnoreSpacing() { // Spacing that does not separate tokens is dropped, and spacing that does is kept.
+        assertEquals("1 + 2", ExpressionCache.normalize(" 1 +2 "));
+        assertNotEquals(ExpressionCache.normalize("12"), ExpressionCache.normalize("1 2"));
+        Lexer lexer = new Lexer("");
+        StringBuilder key = new StringBuilder("left over");
+        assertEquals("{ 1.5e3 * x }", ExpressionCache.normalize("{1.5e3*  x}", lexer, key));
+        assertEquals("1 + 2", ExpressionCache.normalize(" 1 +2 ", lexer, key));
+    }
+}
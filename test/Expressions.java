@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.function.DoubleSupplier;
+
+final class Expressions { // Assertions shared by the tests. parse() and Output.evaluate() are the reference that the
+                          // other parsers and evaluators are compared with.
+    private Expressions() {
+    }
+
+    static BinaryTree parse(CharSequence text) {
+        return new BackusNaurForm(new Lexer(text)).parse();
+    }
+
+    static void assertSameResult(String candidate, String text, BinaryTree tree, DoubleSupplier evaluate) { // The
+        // tree and result of another parser or evaluator must match parse() and Output.evaluate() for the text. The
+        // tree is only compared when one is given.
+        BinaryTree expected = parse(text);
+        if (tree != null) {
+            assertSameTree(expected, tree, candidate + " tree differs for " + text);
+        }
+        assertEquals(result(() -> Output.evaluate(expected)), result(evaluate),
+                candidate + " result differs for " + text);
+    }
+
+    static String result(DoubleSupplier evaluate) { // The value as text, or "invalid" when a leaf is not a number.
+        try {
+            return Double.toString(evaluate.getAsDouble());
+        } catch (NumberFormatException e) {
+            return "invalid";
+        }
+    }
+
+    static void assertSameTree(BinaryTree expected, BinaryTree actual, String message) {
+        assertTrue(sameTree(expected, actual), message);
+    }
+
+    static boolean sameTree(BinaryTree a, BinaryTree b) { // Compare the structure, tokens and heights of two trees.
+        ArrayDeque<BinaryTree[]> pairs = new ArrayDeque<BinaryTree[]>();
+        pairs.push(new BinaryTree[] { a, b });
+        while (!pairs.isEmpty()) {
+            BinaryTree[] pair = pairs.pop();
+            if (pair[0] == null || pair[1] == null) {
+                if (pair[0] != pair[1]) {
+                    return false;
+                }
+                continue;
+            }
+            Token x = pair[0].getRoot();
+            Token y = pair[1].getRoot();
+            if (x.getType() != y.getType() || !x.toString().equals(y.toString())
+                    || pair[0].getHeight() != pair[1].getHeight()) {
+                return false;
+            }
+            pairs.push(new BinaryTree[] { pair[0].getLeft(), pair[1].getLeft() });
+            pairs.push(new BinaryTree[] { pair[0].getRight(), pair[1].getRight() });
+        }
+        return true;
+    }
+}
@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IncrementalExpressionTest { // Every edit must leave the same tree and value as parsing the edited text from
+                                  // scratch.
+    @Test
+    void randomEditsMatchParse() {
+        Random random = new Random(19);
+        String edits = "0123456789+-*/{} .eE_a"; // Exponents, fractions and identifiers change how far tokens reach.
+        for (int i = 0; i < 20_000; i++) {
+            IncrementalExpression incremental = new IncrementalExpression(Workloads.randomText(random, edits,
+                    random.nextInt(30)));
+            for (int j = 0; j < 10; j++) {
+                String text = incremental.getText();
+                int offset = random.nextInt(text.length() + 1);
+                int removed = random.nextInt(Math.min(3, text.length() - offset) + 1);
+                incremental.edit(offset, removed, Workloads.randomText(random, edits, random.nextInt(4)));
+                Expressions.assertSameResult("incremental", incremental.getText(), incremental.getTree(),
+                        incremental::evaluate);
+            }
+        }
+    }
+
+    @Test
+    void editsAllOverALongText() { // One expression edited back and forth while it grows and shrinks, so the gaps
+                                   // move both ways and the buffers grow.
+        Random random = new Random(23);
+        String edits = "0123456789+-*/{} .eE_a";
+        IncrementalExpression incremental = new IncrementalExpression(Workloads.randomExpression(random, 200));
+        for (int i = 0; i < 3_000; i++) {
+            String text = incremental.getText();
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(i % 500 < 250 ? 3 : 40, text.length() - offset) + 1);
+            String inserted = i % 7 == 0 ? Workloads.randomExpression(random, 1 + random.nextInt(20))
+                    : Workloads.randomText(random, edits, random.nextInt(4));
+            incremental.edit(offset, removed, inserted);
+            Expressions.assertSameResult("incremental", incremental.getText(), incremental.getTree(),
+                    incremental::evaluate);
+        }
+    }
+
+    @Test
+    void editBelowDeepNesting() {
+        int depth = 100_000;
+        IncrementalExpression incremental = new IncrementalExpression(ParserTest.nested(depth));
+        incremental.edit(3 * depth, 1, "3"); // The innermost literal, below every level.
+        assertEquals(3.0, incremental.evaluate());
+        assertEquals(depth + 1, incremental.getTree().getHeight());
+    }
+}
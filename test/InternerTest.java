@@ -0,0 +1,27 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class InternerTest { // Interned trees must match plain trees and share every repeated subtree.
+    @Test
+    void internedTreesMatchPlainTrees() {
+        for (String expression : Workloads.corpus(1_000, 6)) {
+            Interner interner = new Interner();
+            BackusNaurForm parser = new BackusNaurForm(new Lexer(expression));
+            parser.setInterner(interner);
+            BinaryTree tree = parser.parse();
+            Expressions.assertSameTree(Expressions.parse(expression), tree, "interned tree differs for " + expression);
+            assertEquals(Output.evaluate(tree), interner.evaluate(tree), expression);
+        }
+    }
+
+    @Test
+    void repeatedSubtreesAreShared() {
+        Interner interner = new Interner();
+        BackusNaurForm parser = new BackusNaurForm(new Lexer("{2-1}*{2-1}+{2-1}"));
+        parser.setInterner(interner);
+        assertEquals(2.0, interner.evaluate(parser.parse()));
+        assertEquals(11, interner.getRequestedNodes());
+        assertEquals(5, interner.getUniqueNodes());
+    }
+}
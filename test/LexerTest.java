@@ -0,0 +1,45 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LexerTest { // Numeric literals are decoded by the lexer itself and must give the same double as
+                  // Double.parseDouble, whatever their length, fraction or exponent.
+    @Test
+    void literalsMatchParseDouble() {
+        Random random = new Random(11);
+        for (int i = 0; i < 1_000_000; i++) {
+            StringBuilder literal = new StringBuilder();
+            int digits = 1 + random.nextInt(i % 2 == 0 ? 8 : 25);
+            for (int j = 0; j < digits; j++) {
+                literal.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextBoolean()) {
+                literal.insert(random.nextInt(literal.length() + 1), '.');
+            }
+            if (random.nextBoolean()) {
+                literal.append(random.nextBoolean() ? 'e' : 'E').append(random.nextBoolean() ? "-" : "")
+                        .append(random.nextInt(i % 3 == 0 ? 400 : 30));
+            }
+            String text = literal.toString();
+            if (text.equals(".")) {
+                continue;
+            }
+            Lexer lexer = new Lexer(text);
+            assertEquals(Type.NUMBER, lexer.type(), text);
+            assertEquals(text.length(), lexer.end(), text);
+            assertEquals(Double.parseDouble(text), lexer.number(), text);
+        }
+        assertEquals(12.345678, new Lexer("12345.678e-3").number());
+    }
+
+    @Test
+    void numbersWithoutText() { // Tokens that only keep their value print it the way Double.toString does.
+        Lexer lexer = new Lexer("1.50+x");
+        lexer.setKeepText(false);
+        lexer.reset("1.50+x");
+        assertEquals("1.5", lexer.token().toString());
+        assertEquals(1.5, lexer.token().toDouble());
+    }
+}
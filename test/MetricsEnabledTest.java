@@ -0,0 +1,57 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MetricsEnabledTest { // The instrumentation itself. Only runs in the JVM that the build starts with
+                           // -Dbnf.metrics=true, since the flag can not change once Metrics is loaded.
+    @BeforeAll
+    static void metricsAreOn() throws Exception {
+        assertTrue(Metrics.enabled, "run with -Dbnf.metrics=true");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("bnf:type=Metrics")));
+    }
+
+    @BeforeEach
+    void reset() {
+        Metrics.instance.reset();
+    }
+
+    @Test
+    void parsesAreRecorded() { // 1+{2*3} has five tokens, five nodes, height three and one bracket.
+        new BackusNaurForm(new Lexer("1+{2*3}")).parse();
+        assertEquals(1, Metrics.instance.getStages().get("parse.count"));
+        assertEquals(5, Metrics.instance.getNodes());
+        assertEquals(3, Metrics.instance.getMaxHeight());
+        assertEquals(1, Metrics.instance.getMaxDepth());
+        Metrics.instance.reset();
+        assertEquals(0, Metrics.instance.getStages().get("parse.count"));
+        assertEquals(0, Metrics.instance.getTokens());
+        assertEquals(0, Metrics.instance.getMaxHeight());
+    }
+
+    @Test
+    void cachesOfOpenEvaluatorsAreReported() { // Each evaluator reports its own cache until it is closed, and a
+                                               // cache shared by two evaluators is counted once.
+        ExpressionCache shared = new ExpressionCache(16, 1);
+        try (BatchEvaluator first = new BatchEvaluator(1, new ExpressionCache(16, 1))) {
+            try (BatchEvaluator second = new BatchEvaluator(1, shared);
+                    BatchEvaluator third = new BatchEvaluator(1, shared)) {
+                first.evaluate(List.of("1+2", "1+2"));
+                second.evaluate(List.of("3"));
+                third.evaluate(List.of("3"));
+                assertEquals(2, Metrics.instance.getCacheHits());
+                assertEquals(2, Metrics.instance.getCacheMisses());
+            }
+            assertEquals(1, Metrics.instance.getCacheHits(), "cache of a closed evaluator still reported");
+            assertEquals(1, Metrics.instance.getCacheMisses(), "cache of a closed evaluator still reported");
+        }
+        assertEquals(0, Metrics.instance.getCacheMisses());
+    }
+}
@@ -0,0 +1,30 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class MetricsTest {
+    @Test
+    void histogramBuckets() { // Every value falls in the bucket whose bounds contain it.
+        for (long value = 0; value >= 0; value = value * 3 / 2 + 1) {
+            int bucket = Metrics.Histogram.bucket(value);
+            assertTrue(Metrics.Histogram.upperBound(bucket) >= value && (bucket == 0
+                    || Metrics.Histogram.upperBound(bucket - 1) < value), "wrong histogram bucket for " + value);
+        }
+    }
+
+    @Test
+    void histogramPercentilesAndReset() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        assertTrue(histogram.percentile(0.5) >= 500 && histogram.percentile(0.5) < 500 * 5 / 4,
+                "wrong median " + histogram.percentile(0.5));
+        assertEquals(1000, histogram.percentile(1.0));
+        histogram.reset();
+        histogram.record(7);
+        assertEquals(1, histogram.count.sum());
+        assertEquals(7, histogram.percentile(1.0));
+    }
+}
@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ParserTest { // The stack-safe parse() must build the same trees as the recursive expression(), and the
+                   // validating parse(ParseResult) must accept exactly the grammar.
+    @Test
+    void parseMatchesExpression() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            String text = Workloads.randomText(random, "0123456789+-*/{} ", 1 + random.nextInt(40));
+            BinaryTree expected = new BackusNaurForm(new Input(text)).expression();
+            Expressions.assertSameTree(expected, new BackusNaurForm(new Input(text)).parse(),
+                    "parse() and expression() differ for " + text);
+        }
+    }
+
+    @Test
+    void validatingParserMatchesGrammar() {
+        Random random = new Random(43);
+        ParseResult result = new ParseResult();
+        for (int i = 0; i < 200_000; i++) {
+            String text = Workloads.randomText(random, "0123456789+-*/{} x#", random.nextInt(30));
+            boolean valid = new BackusNaurForm(new Lexer(text)).parse(result);
+            assertEquals(isValid(new Lexer(text)), valid, "validating parser disagrees with the grammar for " + text);
+            if (valid) {
+                Expressions.assertSameTree(Expressions.parse(text), result.getTree(), "tree differs for " + text);
+            } else {
+                assertTrue(result.getOffset() >= 0 && result.getOffset() <= text.length(),
+                        "offset out of range for " + text);
+            }
+        }
+    }
+
+    @Test
+    void errorsHaveKindAndOffset() {
+        String[][] errors = { { "{1+2", "UNCLOSED_BRACKET at 4" }, { "1 2", "EXPECTED_OPERATOR at 2" },
+                { "}", "EXPECTED_OPERAND at 0" }, { "1+", "UNEXPECTED_END at 2" }, { "", "UNEXPECTED_END at 0" },
+                { "1#2", "UNKNOWN_CHARACTER at 1" }, { "{1+2}}", "UNMATCHED_BRACKET at 5" },
+                { "{1+2} {3}", "EXPECTED_OPERATOR at 6" }, { "{2*{3-1}}+x", "VALID" } };
+        ParseResult result = new ParseResult();
+        for (String[] error : errors) {
+            new BackusNaurForm(new Lexer(error[0])).parse(result);
+            assertEquals(error[1], result.toString(), "unexpected diagnostic for " + error[0]);
+        }
+    }
+
+    @Test
+    void unboundVariablesAreReported() { // Valid for the grammar, but not for an evaluator without bindings.
+        ParseResult result = new ParseResult();
+        assertTrue(new BackusNaurForm(new Lexer("{2*{3-1}}+x")).parse(result));
+        assertFalse(result.requireConstant());
+        assertEquals("UNBOUND_VARIABLE at 10", result.toString());
+        assertTrue(new BackusNaurForm(new Lexer("{2*{3-1}}+1")).parse(result) && result.requireConstant());
+    }
+
+    @Test
+    void longFlatExpression() {
+        BinaryTree tree = new BackusNaurForm(new Input(flat(1_000_000))).parse();
+        assertEquals(1.0, Output.evaluate(tree));
+        assertEquals(250_002, tree.getHeight());
+    }
+
+    @Test
+    void deeplyNestedExpression() {
+        int depth = 100_000;
+        BinaryTree tree = Expressions.parse(nested(depth));
+        assertEquals(1.0, Output.evaluate(tree));
+        assertEquals(depth + 1, tree.getHeight());
+    }
+
+    static String flat(int tokens) { // 1+0*1-0/1... with the given number of tokens, which evaluates to 1.
+        StringBuilder flat = new StringBuilder("1");
+        String[] operations = { "+0", "*1", "-0", "/1" };
+        for (int i = 1; i < tokens; i += 2) {
+            flat.append(operations[(i / 2) % operations.length]);
+        }
+        return flat.toString();
+    }
+
+    static String nested(int depth) { // 2-{2-{...{1}...}} with the given number of brackets.
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            nested.append("2-{");
+        }
+        nested.append('1');
+        for (int i = 0; i < depth; i++) {
+            nested.append('}');
+        }
+        return nested.toString();
+    }
+
+    private static boolean isValid(Lexer lexer) { // Reference recognizer for the grammar, written as plain
+                                                  // recursive descent. Only for short inputs.
+        return isExpression(lexer) && lexer.isType(Type.END);
+    }
+
+    private static boolean isExpression(Lexer lexer) { // <expression> and <factor> accept the same operand lists,
+                                                       // only the operator precedence differs.
+        while (true) {
+            if (lexer.isType(Type.OPEN)) {
+                lexer.next();
+                if (!isExpression(lexer) || !lexer.isType(Type.CLOSE)) {
+                    return false;
+                }
+            } else if (!lexer.isType(Type.NUMBER) && !lexer.isType(Type.IDENTIFIER)) {
+                return false;
+            }
+            lexer.next();
+            Token t = lexer.token();
+            if (!t.isAdditive() && !t.isMultiplicative()) {
+                return true;
+            }
+            lexer.next();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ProgramTest { // Compiled programs must give the same results as evaluating the tree, for single expressions
+                    // and for whole columns of variable values.
+    @Test
+    void programsMatchTrees() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            String text = Workloads.randomText(random, "0123456789+-*/{} ", 1 + random.nextInt(40));
+            assertSameProgram(Expressions.parse(text), text);
+        }
+    }
+
+    @Test
+    void specialValues() { // Division by zero, NaN and signed zero.
+        for (String text : new String[] { "1/0", "0/0", "{0-1}/0", "0*{0-1}", "{0-1}/{1/0}", "{0/0}+1" }) {
+            assertSameProgram(Expressions.parse(text), text);
+        }
+    }
+
+    @Test
+    void identifiersAreVariables() { // Identifiers that Double.parseDouble would read are still variables.
+        for (String text : new String[] { "Infinity*2", "NaN", "{1+NaN}/x" }) {
+            BinaryTree tree = Expressions.parse(text);
+            assertThrows(NumberFormatException.class, () -> Output.evaluate(tree), text);
+            assertTrue(Program.compile(tree).getVariables().length > 0, text);
+        }
+    }
+
+    @Test
+    void rowsWithoutVariables() {
+        Program program = Program.compile(Expressions.parse("1+2"));
+        assertArrayEquals(new double[] { 3, 3, 3 }, program.evaluate(new double[0][], 3));
+    }
+
+    @Test
+    void columnsMatchSplicedExpressions() { // Every row must give what the formula gives with the values of the
+                                            // row written in place of its variables.
+        Random random = new Random(12);
+        for (int i = 0; i < 2_000; i++) {
+            String formula = Workloads.formula(random, 1 + random.nextInt(12));
+            Program program = Program.compile(Expressions.parse(formula));
+            int rows = random.nextInt(1_500);
+            double[][] columns = Workloads.columns(random, program.getVariables().length, rows);
+            double[] results = program.evaluate(columns, rows);
+            double[] stack = program.newStack();
+            double[] bindings = new double[columns.length];
+            for (int row = 0; row < Math.min(rows, 50); row++) {
+                for (int j = 0; j < bindings.length; j++) {
+                    bindings[j] = columns[j][row];
+                }
+                String text = Workloads.splice(formula, program.getVariables(), columns, row);
+                double expected = Output.evaluate(Expressions.parse(text));
+                assertEquals(expected, program.evaluate(stack, bindings), text);
+                assertEquals(expected, results[row], formula + " at row " + row);
+            }
+        }
+    }
+
+    @Test
+    void variablesAreSharedByName() {
+        Program program = Program.compile(Expressions.parse("x_1 * {x_1 + y} - 2"));
+        assertArrayEquals(new String[] { "x_1", "y" }, program.getVariables());
+        assertEquals(15.0, program.evaluate(program.newStack(), new double[] { 3, 4 }));
+    }
+
+    private static void assertSameProgram(BinaryTree tree, String text) { // The program must give the same result
+                                                                          // as the tree, or fail the same way.
+        double expected;
+        try {
+            expected = Output.evaluate(tree);
+        } catch (NumberFormatException e) {
+            assertThrows(NumberFormatException.class, () -> Program.compile(tree),
+                    "Program compiled an invalid tree for " + text);
+            return;
+        }
+        assertEquals(expected, Program.compile(tree).evaluate(), "Program result differs for " + text);
+    }
+}
@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SimplifierTest { // Simplified trees must give the same results as the original ones for every value of their
+                       // variables, including the special values the identities must not change, and fail for the
+                       // same leaves that are not numbers.
+    @Test
+    void formulasKeepTheirValues() {
+        double[] special = { 0.0, -0.0, 1.0, -1.0, 2.0, Double.NaN, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE };
+        Random random = new Random(14);
+        Simplifier simplifier = new Simplifier();
+        for (int i = 0; i < 20_000; i++) {
+            BinaryTree tree = Expressions.parse(Workloads.mixedFormula(random, 1 + random.nextInt(12)));
+            Program parsed = Program.compile(tree);
+            Program simple = Program.compile(simplifier.simplify(tree));
+            assertArrayEquals(parsed.getVariables(), simple.getVariables(), "simplifying changed the variables");
+            double[] bindings = new double[parsed.getVariables().length];
+            for (int row = 0; row < 20; row++) {
+                for (int j = 0; j < bindings.length; j++) {
+                    bindings[j] = special[random.nextInt(special.length)];
+                }
+                assertEquals(parsed.evaluate(parsed.newStack(), bindings),
+                        simple.evaluate(simple.newStack(), bindings), "simplified result differs");
+            }
+        }
+    }
+
+    @Test
+    void randomTextKeepsItsValue() {
+        Random random = new Random(15);
+        Simplifier simplifier = new Simplifier();
+        for (int i = 0; i < 100_000; i++) {
+            String text = Workloads.randomText(random, "0123456789+-*/{} ", 1 + random.nextInt(30));
+            BinaryTree simple = simplifier.simplify(Expressions.parse(text));
+            Expressions.assertSameResult("simplified", text, null, () -> Output.evaluate(simple));
+        }
+    }
+
+    @Test
+    void identities() { // The identities that hold for every value are applied, and the others are not.
+        Simplifier simplifier = new Simplifier();
+        for (String[] pair : new String[][] { { "x*1", "x" }, { "1*x", "x" }, { "x/1", "x" }, { "x-0", "x" },
+                { "x+{0*{0-1}}", "x" }, { "{0*{0-1}}+x", "x" }, { "x+0", "+" }, { "0*x", "*" }, { "1/x", "/" },
+                { "x-{0*{0-1}}", "-" }, { "{2-1}*3+4", "7.0" } }) {
+            assertEquals(pair[1], simplifier.simplify(Expressions.parse(pair[0])).getRoot().toString(), pair[0]);
+        }
+    }
+
+    @Test
+    void identifiersAreNotFolded() {
+        for (String text : new String[] { "Infinity*2", "NaN", "{1+NaN}/x" }) {
+            assertFalse(new Simplifier().simplify(Expressions.parse(text)).getRoot().isNumeric(), text);
+        }
+    }
+
+    @Test
+    void longFlatExpression() {
+        assertEquals(1.0, new Simplifier().simplify(Expressions.parse(ParserTest.flat(1_000_000))).getRoot()
+                .toDouble());
+    }
+}
@@ -0,0 +1,31 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class StreamEvaluatorTest { // Lines are evaluated one by one, and errors are reported with their kind and offset.
+    @Test
+    void longLineOfNumbers() throws IOException { // One line of 100,000 multi-digit literals, which must stream
+                                                  // in linear time.
+        String numbers = Workloads.numberExpression(200_000);
+        assertEquals(Output.evaluate(Expressions.parse(numbers)) + "\n", evaluate(numbers + "\n"));
+    }
+
+    @Test
+    void errorsAndUnboundVariables() throws IOException {
+        assertEquals("3.0\nERROR UNEXPECTED_END at 2\nERROR UNBOUND_VARIABLE at 0\nERROR UNBOUND_VARIABLE at 5\n"
+                + "ERROR UNEXPECTED_END at 0\n5.0\n", evaluate("1+2\n1+\nx+1\n1+{2*NaN}\n\n2+3"));
+    }
+
+    static String evaluate(String lines) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StreamEvaluator(Channels.newChannel(out)).evaluateStream(Channels.newChannel(
+                new ByteArrayInputStream(lines.getBytes(StandardCharsets.US_ASCII))));
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+}
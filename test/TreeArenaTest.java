@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TreeArenaTest { // Arena trees must match parse(), both as trees and values.
+    @Test
+    void treesMatchParse() {
+        Random random = new Random(17);
+        TreeArena arena = new TreeArena(); // Reused, so every parse also checks that clearing the arena is complete.
+        for (int i = 0; i < 100_000; i++) {
+            String text = Workloads.randomText(random, "0123456789+-*/{} ", 1 + random.nextInt(40));
+            arena.parse(text);
+            Expressions.assertSameResult("arena", text, arena.toBinaryTree(), arena::evaluate);
+        }
+    }
+
+    @Test
+    void viewsKnowTheirParents() {
+        TreeArena arena = new TreeArena();
+        arena.parse("1+2*3");
+        BinaryTree view = arena.toBinaryTree(); // * binds looser than +, so 1+2 is the left subtree.
+        BinaryTree left = view.getLeft();
+        assertTrue(view.isRoot());
+        assertNull(view.getParent());
+        assertFalse(left.isRoot());
+        assertTrue(left.isLeft() && !left.isRight() && view.getRight().isRight());
+        assertSame(view.getRoot(), left.getParent().getRoot());
+        assertSame(view.getRoot(), arena.toBinaryTree().getRoot(), "token of a node built again");
+    }
+
+    @Test
+    void viewsInsideBinaryTrees() { // A view linked under a BinaryTree gives its own height and keeps its parent.
+        TreeArena arena = new TreeArena();
+        arena.parse("1+2+3+4+5");
+        BinaryTree view = arena.toBinaryTree();
+        assertEquals(5, view.getHeight());
+        assertEquals(5, view.height());
+        BinaryTree tree = new BinaryTree(Expressions.parse("1*2").getRoot(), view, Expressions.parse("6"));
+        assertEquals(6, tree.getHeight());
+        assertEquals(6, tree.height());
+        assertTrue(view.isRoot());
+        assertEquals(90.0, Output.evaluate(tree));
+    }
+
+    @Test
+    void longAndDeepExpressions() {
+        TreeArena arena = new TreeArena();
+        BinaryTree flat = Expressions.parse(ParserTest.flat(1_000_000));
+        arena.parse(ParserTest.flat(1_000_000));
+        assertEquals(1.0, arena.evaluate());
+        assertEquals(flat.getHeight(), arena.getHeight(arena.getRoot()));
+        arena.parse(ParserTest.nested(100_000));
+        assertEquals(1.0, arena.evaluate());
+        assertEquals(100_001, arena.getHeight(arena.getRoot()));
+    }
+}
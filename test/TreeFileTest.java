@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TreeFileTest { // Trees read back from a tree file must match the ones written, and evaluating them from the
+                     // bytes must match parse(). A file with a changed byte must be rejected.
+    private Path path;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        path = Files.createTempFile("bnf", ".trees");
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.delete(path);
+    }
+
+    @Test
+    void treesMatchWhatWasWritten() throws IOException { // Simplified trees keep the value of their text, so both
+                                                         // kinds are compared with it.
+        Random random = new Random(20);
+        String leaves = "0123456789+-*/{} .eExy_#\u20ac"; // Identifiers, unknown characters and non-ASCII text.
+        List<BinaryTree> trees = new ArrayList<BinaryTree>();
+        List<String> texts = new ArrayList<String>();
+        for (int i = 0; i < 20_000; i++) {
+            String text = Workloads.randomText(random, leaves, random.nextInt(30));
+            BinaryTree tree = Expressions.parse(text);
+            trees.add(i % 2 == 0 ? tree : new Simplifier().simplify(tree)); // Folded constants have any text.
+            texts.add(text);
+        }
+        TreeFile.write(path, trees);
+        TreeFile file = TreeFile.load(path);
+        assertEquals(trees.size(), file.size());
+        for (int i = 0; i < trees.size(); i++) {
+            int index = i;
+            Expressions.assertSameTree(trees.get(i), file.getTree(i), "tree file differs for " + texts.get(i));
+            Expressions.assertSameResult("tree file", texts.get(i), null, () -> file.evaluate(index));
+        }
+    }
+
+    @Test
+    void corruptFilesAreRejected() throws IOException {
+        List<BinaryTree> trees = new ArrayList<BinaryTree>();
+        for (String text : Workloads.corpus(100, 6)) {
+            trees.add(Expressions.parse(text));
+        }
+        TreeFile.write(path, trees);
+        byte[] bytes = Files.readAllBytes(path);
+        int[] offsets = { 4, 6, 8, 12, 16, bytes.length / 2, bytes.length - 1 }; // Version, flags, count, length,
+                                                                                 // checksum and data.
+        for (int offset : offsets) {
+            byte[] corrupt = bytes.clone();
+            corrupt[offset] ^= 1;
+            Files.write(path, corrupt);
+            assertThrows(IOException.class, () -> TreeFile.load(path), "byte " + offset + " changed");
+        }
+    }
+}